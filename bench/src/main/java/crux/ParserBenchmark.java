@@ -0,0 +1,80 @@
+package crux;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark
+{
+	@Param({ "100", "10000" })
+	public int declarations;
+
+	@Param({ "4", "16" })
+	public int maxDepth;
+
+	// share of references that name a declared symbol; misses produce errors
+	@Param({ "1.0", "0.9" })
+	public double hitRate;
+
+	private char[] source;
+	private TokenBuffer tokens;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		source = new ProgramGenerator(42, 1000, true, hitRate, maxDepth, 8).generate(declarations).toCharArray();
+		tokens = TokenBuffer.lex(source, source.length);
+	}
+
+	@Benchmark
+	public boolean parse()
+	{
+		Parser parser = new Parser(new Scanner(new CharArrayReader(source)));
+		parser.parse();
+		return parser.hasError();
+	}
+
+	@Benchmark
+	public boolean parseFlatScopes()
+	{
+		Scanner scanner = new Scanner(new CharArrayReader(source));
+		Parser parser = new Parser(scanner, new FlatScopeStack(scanner.names()));
+		parser.parse();
+		return parser.hasError();
+	}
+
+	@Benchmark
+	public boolean parseTokenBuffer()
+	{
+		tokens.rewind();
+		Parser parser = new Parser(tokens);
+		parser.parse();
+		return parser.hasError();
+	}
+
+	@Benchmark
+	public String parseAndReport()
+	{
+		Parser parser = new Parser(new Scanner(new CharArrayReader(source)));
+		parser.parse();
+		return parser.errorReport();
+	}
+}
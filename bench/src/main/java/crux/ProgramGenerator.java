@@ -0,0 +1,372 @@
+package crux;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Generates syntactically valid Crux programs from the grammar. Names are
+// drawn from a fixed vocabulary, uniformly or skewed towards a few hot names,
+// and a configurable share of references point at names that were declared.
+// A name drawn again in the same scope gets a numbered suffix, so with a hit
+// rate of 1 the program declares and resolves without a single error.
+public class ProgramGenerator
+{
+	private static final String[] TYPES = { "int", "float", "bool", "void" };
+	private static final String[] OP0 = { ">=", "<=", "!=", "==", ">", "<" };
+	private static final String[] OP1 = { "+", "-", "or" };
+	private static final String[] OP2 = { "*", "/", "and" };
+
+	private final Random random;
+	private final int vocabulary;
+	private final boolean skewed;
+	private final double hitRate;
+	private final int maxDepth;
+	private final int statements;
+
+	private StringBuilder sb;
+	private List<Scope> scopes;
+
+	private static class Scope
+	{
+		private List<String> names = new ArrayList<String>();
+		// how often each drawn name was declared here
+		private Map<String, Integer> draws = new HashMap<String, Integer>();
+	}
+
+	public ProgramGenerator(long seed, int vocabulary, boolean skewed, double hitRate, int maxDepth, int statements)
+	{
+		this.random = new Random(seed);
+		this.vocabulary = vocabulary;
+		this.skewed = skewed;
+		this.hitRate = hitRate;
+		this.maxDepth = maxDepth;
+		this.statements = statements;
+	}
+
+	public String generate(int declarations)
+	{
+		sb = new StringBuilder();
+		scopes = new ArrayList<Scope>();
+		enterScope();
+		for (String builtIn : new String[] { "readInt", "readFloat", "printBool", "printInt", "printFloat", "println" })
+		{
+			scopes.get(0).names.add(builtIn);
+		}
+
+		for (int i = 0; i < declarations; i++)
+		{
+			declaration();
+		}
+		return sb.toString();
+	}
+
+	// declaration := variable-declaration | array-declaration | function-definition
+	private void declaration()
+	{
+		int choice = random.nextInt(10);
+		if (choice < 4)
+		{
+			variableDeclaration(0);
+		}
+		else if (choice < 5)
+		{
+			arrayDeclaration(0);
+		}
+		else
+		{
+			functionDefinition();
+		}
+	}
+
+	private void variableDeclaration(int depth)
+	{
+		indent(depth);
+		sb.append("var ").append(declare()).append(" : ").append(type()).append(";\n");
+	}
+
+	private void arrayDeclaration(int depth)
+	{
+		indent(depth);
+		sb.append("array ").append(declare()).append(" : ").append(type());
+		int dimensions = 1 + random.nextInt(3);
+		for (int i = 0; i < dimensions; i++)
+		{
+			sb.append('[').append(1 + random.nextInt(64)).append(']');
+		}
+		sb.append(";\n");
+	}
+
+	private void functionDefinition()
+	{
+		sb.append("func ").append(declare()).append('(');
+		enterScope();
+		int parameters = random.nextInt(4);
+		for (int i = 0; i < parameters; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(", ");
+			}
+			sb.append(declare()).append(" : ").append(type());
+		}
+		sb.append(") : ").append(type()).append(" {\n");
+		for (int i = 0; i < statements; i++)
+		{
+			statement(1);
+		}
+		sb.append("}\n");
+		exitScope();
+	}
+
+	private void statementBlock(int depth)
+	{
+		sb.append("{\n");
+		int count = 1 + random.nextInt(Math.max(1, statements / (depth + 1)));
+		for (int i = 0; i < count; i++)
+		{
+			statement(depth + 1);
+		}
+		indent(depth);
+		sb.append("}\n");
+	}
+
+	private void statement(int depth)
+	{
+		int choice = random.nextInt(depth < maxDepth ? 10 : 7);
+		if (choice < 2)
+		{
+			variableDeclaration(depth);
+			return;
+		}
+
+		indent(depth);
+		if (choice < 4)
+		{
+			sb.append("let ");
+			designator(0);
+			sb.append(" = ");
+			expression0(0);
+			sb.append(";\n");
+		}
+		else if (choice < 5)
+		{
+			callExpression(0);
+			sb.append(";\n");
+		}
+		else if (choice < 7)
+		{
+			sb.append("return ");
+			expression0(0);
+			sb.append(";\n");
+		}
+		else if (choice < 9)
+		{
+			sb.append("if ");
+			enterScope();
+			expression0(0);
+			sb.append(' ');
+			statementBlock(depth);
+			if (random.nextBoolean())
+			{
+				indent(depth);
+				sb.append("else ");
+				statementBlock(depth);
+			}
+			exitScope();
+		}
+		else
+		{
+			sb.append("while ");
+			enterScope();
+			expression0(0);
+			sb.append(' ');
+			statementBlock(depth);
+			exitScope();
+		}
+	}
+
+	private void expression0(int depth)
+	{
+		expression1(depth);
+		if (random.nextInt(4) == 0)
+		{
+			sb.append(' ').append(OP0[random.nextInt(OP0.length)]).append(' ');
+			expression1(depth);
+		}
+	}
+
+	private void expression1(int depth)
+	{
+		expression2(depth);
+		while (random.nextInt(4) == 0)
+		{
+			sb.append(' ').append(OP1[random.nextInt(OP1.length)]).append(' ');
+			expression2(depth);
+		}
+	}
+
+	private void expression2(int depth)
+	{
+		expression3(depth);
+		while (random.nextInt(4) == 0)
+		{
+			sb.append(' ').append(OP2[random.nextInt(OP2.length)]).append(' ');
+			expression3(depth);
+		}
+	}
+
+	private void expression3(int depth)
+	{
+		int choice = random.nextInt(depth < 3 ? 8 : 5);
+		if (choice < 3)
+		{
+			designator(depth);
+		}
+		else if (choice < 5)
+		{
+			literal();
+		}
+		else if (choice < 6)
+		{
+			sb.append("not ");
+			expression3(depth + 1);
+		}
+		else if (choice < 7)
+		{
+			sb.append('(');
+			expression0(depth + 1);
+			sb.append(')');
+		}
+		else
+		{
+			callExpression(depth + 1);
+		}
+	}
+
+	private void callExpression(int depth)
+	{
+		sb.append("::").append(reference()).append('(');
+		int arguments = depth < 3 ? random.nextInt(3) : 0;
+		for (int i = 0; i < arguments; i++)
+		{
+			if (i > 0)
+			{
+				sb.append(", ");
+			}
+			expression0(depth + 1);
+		}
+		sb.append(')');
+	}
+
+	private void designator(int depth)
+	{
+		sb.append(reference());
+		if (depth < 3 && random.nextInt(8) == 0)
+		{
+			sb.append('[');
+			expression0(depth + 1);
+			sb.append(']');
+		}
+	}
+
+	private void literal()
+	{
+		switch (random.nextInt(4))
+		{
+		case 0:
+			sb.append(random.nextInt(100000));
+			break;
+		case 1:
+			sb.append(random.nextInt(1000)).append('.').append(random.nextInt(1000));
+			break;
+		case 2:
+			sb.append("true");
+			break;
+		default:
+			sb.append("false");
+			break;
+		}
+	}
+
+	private String type()
+	{
+		return TYPES[random.nextInt(TYPES.length)];
+	}
+
+	private String name()
+	{
+		int index;
+		if (skewed)
+		{
+			// roughly Zipfian: small indices are much more likely
+			index = (int) Math.floor(Math.pow(vocabulary + 1, random.nextDouble())) - 1;
+		}
+		else
+		{
+			index = random.nextInt(vocabulary);
+		}
+		return "n" + index;
+	}
+
+	// Vocabulary names never contain '_', so suffixed ones cannot collide.
+	private String declare()
+	{
+		Scope scope = scopes.get(scopes.size() - 1);
+		String name = name();
+		int draws = scope.draws.merge(name, 1, Integer::sum);
+		if (draws > 1)
+		{
+			name = name + "_" + (draws - 1);
+		}
+		scope.names.add(name);
+		return name;
+	}
+
+	// A hit picks an open scope that has names, then one of its names. The
+	// global scope always has the built-ins.
+	private String reference()
+	{
+		if (random.nextDouble() >= hitRate)
+		{
+			return name();
+		}
+
+		int open = 0;
+		for (Scope scope : scopes)
+		{
+			if (!scope.names.isEmpty())
+			{
+				open++;
+			}
+		}
+		int pick = random.nextInt(open);
+		for (Scope scope : scopes)
+		{
+			if (!scope.names.isEmpty() && pick-- == 0)
+			{
+				return scope.names.get(random.nextInt(scope.names.size()));
+			}
+		}
+		throw new IllegalStateException();
+	}
+
+	private void enterScope()
+	{
+		scopes.add(new Scope());
+	}
+
+	private void exitScope()
+	{
+		scopes.remove(scopes.size() - 1);
+	}
+
+	private void indent(int depth)
+	{
+		for (int i = 0; i < depth; i++)
+		{
+			sb.append("  ");
+		}
+	}
+}
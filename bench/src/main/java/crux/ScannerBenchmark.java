@@ -0,0 +1,71 @@
+package crux;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark
+{
+	@Param({ "100", "10000" })
+	public int declarations;
+
+	private char[] source;
+
+	@Setup
+	public void setup()
+	{
+		source = new ProgramGenerator(42, 1000, true, 0.9, 4, 8).generate(declarations).toCharArray();
+	}
+
+	@Benchmark
+	public int next(Blackhole blackhole) throws IOException
+	{
+		Scanner scanner = new Scanner(new CharArrayReader(source));
+		int count = 0;
+		Token token;
+		do
+		{
+			token = scanner.next();
+			blackhole.consume(token);
+			count++;
+		} while (!token.isToken(Token.Kind.EOF));
+		return count;
+	}
+
+	@Benchmark
+	public int advance() throws IOException
+	{
+		Scanner scanner = new Scanner(new CharArrayReader(source));
+		int count = 0;
+		while (scanner.advance() != Token.Kind.EOF)
+		{
+			count++;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public TokenBuffer tokenBuffer() throws IOException
+	{
+		return TokenBuffer.lex(source, source.length);
+	}
+}
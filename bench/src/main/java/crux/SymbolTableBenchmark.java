@@ -0,0 +1,157 @@
+package crux;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Declares globals, then opens nested scopes each declaring a few locals, and
+// resolves names drawn uniformly or skewed over everything visible plus a
+// share of names that are not declared anywhere. The lookup benchmarks run
+// against a stack populated before each iteration, so they time lookups only.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark
+{
+	private static final int LOCALS_PER_SCOPE = 4;
+	private static final int LOOKUPS = 10000;
+
+	@Param({ "100", "30000" })
+	public int globals;
+
+	@Param({ "1", "8", "32" })
+	public int depth;
+
+	@Param({ "uniform", "skewed" })
+	public String distribution;
+
+	@Param({ "chained", "flat" })
+	public String implementation;
+
+	@Param({ "0.1" })
+	public double missRate;
+
+	private NameTable names;
+	private int[] lookups;
+	private ScopeStack populated;
+
+	@Setup
+	public void setup()
+	{
+		names = new NameTable();
+		int declared = globals + depth * LOCALS_PER_SCOPE;
+		for (int i = 0; i < declared; i++)
+		{
+			names.intern("n" + i);
+		}
+		int missing = Math.max(1, (int) (declared * missRate));
+		for (int i = 0; i < missing; i++)
+		{
+			names.intern("missing" + i);
+		}
+
+		Random random = new Random(42);
+		lookups = new int[LOOKUPS];
+		for (int i = 0; i < LOOKUPS; i++)
+		{
+			if (random.nextDouble() < missRate)
+			{
+				lookups[i] = declared + random.nextInt(missing);
+			}
+			else if (distribution.equals("skewed"))
+			{
+				lookups[i] = (int) Math.floor(Math.pow(declared + 1, random.nextDouble())) - 1;
+			}
+			else
+			{
+				lookups[i] = random.nextInt(declared);
+			}
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void populateScopes()
+	{
+		populated = populate();
+	}
+
+	private ScopeStack newScopes()
+	{
+		return implementation.equals("flat") ? new FlatScopeStack(names) : new ChainedScopeStack(names);
+	}
+
+	private ScopeStack populate()
+	{
+		ScopeStack scopes = newScopes();
+		int id = 0;
+		for (int i = 0; i < globals; i++)
+		{
+			scopes.insert(id++);
+		}
+		for (int level = 0; level < depth; level++)
+		{
+			scopes.enterScope();
+			for (int i = 0; i < LOCALS_PER_SCOPE; i++)
+			{
+				scopes.insert(id++);
+			}
+		}
+		return scopes;
+	}
+
+	@Benchmark
+	public ScopeStack insert()
+	{
+		return populate();
+	}
+
+	@Benchmark
+	public int lookup()
+	{
+		ScopeStack scopes = populated;
+		int found = 0;
+		for (int id : lookups)
+		{
+			if (scopes.find(id) != null)
+			{
+				found++;
+			}
+		}
+		return found;
+	}
+
+	// the same lookups through the throwing API
+	@Benchmark
+	public int lookupThrowing()
+	{
+		ScopeStack scopes = populated;
+		int found = 0;
+		for (int id : lookups)
+		{
+			try
+			{
+				scopes.lookup(id);
+				found++;
+			}
+			catch (SymbolNotFoundError e)
+			{
+			}
+		}
+		return found;
+	}
+}
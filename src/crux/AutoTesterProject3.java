@@ -5,6 +5,20 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import crux.Parser;
 import crux.Scanner;
@@ -18,6 +32,9 @@ public class AutoTesterProject3
 	public static final int IO_ERROR = 3;
 	public static final int SLEEP_ERROR = 4;
 
+	// error cap of the recovering modes
+	public static final int RECOVERY_CAP = 5;
+
 	public static int testPrivate(int testNum)
 	{
 		String inputFilename = String.format("tests/testP%02d.crx", testNum);
@@ -27,7 +44,7 @@ public class AutoTesterProject3
 		Scanner s = null;
 		try
 		{
-			s = new Scanner(new FileReader(inputFilename));
+			s = new Scanner(Paths.get(inputFilename));
 		}
 		catch (IOException e)
 		{
@@ -127,7 +144,7 @@ public class AutoTesterProject3
 		Scanner s = null;
 		try
 		{
-			s = new Scanner(new FileReader(inputFilename));
+			s = new Scanner(Paths.get(inputFilename));
 		}
 		catch (IOException e)
 		{
@@ -218,6 +235,566 @@ public class AutoTesterProject3
 		return result;
 	}
 
+	// Runs tests/test<mode>NN in one of the parser's modes: R recovers from
+	// errors up to RECOVERY_CAP, D also defers global lookups, M parses
+	// testMNNa.crx, testMNNb.crx and so on as the files of one program, then
+	// lists the lookups another file settled, and I edits testINNa.crx into
+	// testINNb.crx and so on with IncrementalParser.
+	// X indexes testXNNa.crx, testXNNb.crx and so on, parsed with deferred
+	// lookups, and prints the index of the first. C compiles testCNN.crx
+	// through a ParseCache, whose entry it damages in between. F parses over
+	// a FlatScopeStack, whose outcome must match the default stack's. T lexes
+	// testTNN.crx into a TokenBuffer, prints its tokens and parses over it.
+	// B parses testBNN.crx with the built-ins its first line lists. U parses
+	// testUNNa.crx, testUNNb.crx and so on in turn with the pooled parsers.
+	// S parses testSNN.crx with SymbolMetadata and prints what it recorded.
+	public static int testMode(char mode, int testNum)
+	{
+		String name = String.format("tests/test%c%02d", mode, testNum);
+		String outputFilename = name + ".rea";
+		String expectedFilename = name + ".out";
+
+		String output;
+		try
+		{
+			output = run(mode, name);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			return NOT_ACCESSABLE;
+		}
+
+		try
+		{
+			PrintStream outputStream = new PrintStream(outputFilename);
+			outputStream.print(output);
+			outputStream.close();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Error opening output file: \"" + outputFilename + "\"");
+			e.printStackTrace();
+			return IO_ERROR;
+		}
+
+		return compare(outputFilename, expectedFilename);
+	}
+
+	private static String run(char mode, String name) throws IOException
+	{
+		List<Path> files = new ArrayList<Path>();
+		for (char part = 'a'; Files.exists(Paths.get(name + part + ".crx")); part++)
+		{
+			files.add(Paths.get(name + part + ".crx"));
+		}
+
+		StringBuilder sb = new StringBuilder();
+		if (mode == 'M')
+		{
+			try
+			{
+				for (BatchCompiler.Result result : new BatchCompiler(1, RECOVERY_CAP, null).compileProgram(files))
+				{
+					sb.append(result.path().getFileName()).append(": ");
+					sb.append(outcome(result.hasError(), result.errorReport()));
+				}
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException(e);
+			}
+			sb.append(sharedLookups(files));
+		}
+		else if (mode == 'I')
+		{
+			// every step is one edit, the span where the versions differ
+			String before = new String(Files.readAllBytes(files.get(0)), StandardCharsets.UTF_8);
+			IncrementalParser parser = new IncrementalParser(before);
+			for (Path file : files.subList(1, files.size()))
+			{
+				String after = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+				int start = 0;
+				while (start < before.length() && start < after.length() && before.charAt(start) == after.charAt(start))
+				{
+					start++;
+				}
+				int end = 0;
+				while (end < before.length() - start && end < after.length() - start
+						&& before.charAt(before.length() - 1 - end) == after.charAt(after.length() - 1 - end))
+				{
+					end++;
+				}
+				parser.edit(start, before.length() - start - end, after.substring(start, after.length() - end));
+				sb.append(file.getFileName()).append(": ").append(outcome(parser.hasError(), parser.errorReport()));
+				before = after;
+			}
+		}
+		else if (mode == 'X')
+		{
+			sb.append(crossReferences(files));
+		}
+		else if (mode == 'C')
+		{
+			sb.append(cached(Paths.get(name + ".crx")));
+		}
+		else if (mode == 'F')
+		{
+			Scanner scanner = new Scanner(Paths.get(name + ".crx"));
+			Parser flat = new Parser(scanner, new FlatScopeStack(scanner.names()));
+			flat.setRecovery(RECOVERY_CAP);
+			flat.parse();
+			Parser chained = new Parser(new Scanner(Paths.get(name + ".crx")));
+			chained.setRecovery(RECOVERY_CAP);
+			chained.parse();
+			sb.append(outcome(flat.hasError(), flat.errorReport()));
+			if (!sb.toString().equals(outcome(chained.hasError(), chained.errorReport())))
+			{
+				sb.append("ChainedScopeStack disagrees.\n");
+			}
+		}
+		else if (mode == 'T')
+		{
+			sb.append(buffered(Paths.get(name + ".crx")));
+		}
+		else if (mode == 'B')
+		{
+			sb.append(builtIns(Paths.get(name + ".crx")));
+		}
+		else if (mode == 'U')
+		{
+			sb.append(pooled(files));
+		}
+		else if (mode == 'S')
+		{
+			Parser p = new Parser(new Scanner(Paths.get(name + ".crx")));
+			SymbolMetadata metadata = new SymbolMetadata();
+			p.setMetadata(metadata);
+			p.setRecovery(RECOVERY_CAP);
+			p.parse();
+			sb.append(metadata(metadata));
+			sb.append(outcome(p.hasError(), p.errorReport()));
+		}
+		else
+		{
+			Parser p = new Parser(new Scanner(Paths.get(name + ".crx")));
+			p.setRecovery(RECOVERY_CAP);
+			p.setDeferredResolution(mode == 'D');
+			p.parse();
+			sb.append(outcome(p.hasError(), p.errorReport()));
+		}
+		return sb.toString();
+	}
+
+	// The lookups that resolve to a global of another file, as the listener
+	// of each file's parser sees them once the shared scope is resolved.
+	private static String sharedLookups(List<Path> files) throws IOException
+	{
+		SharedGlobalScope scope = new SharedGlobalScope();
+		Map<Symbol, Path> declaredIn = new IdentityHashMap<Symbol, Path>();
+		Parser[] parsers = new Parser[files.size()];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < parsers.length; i++)
+		{
+			Path file = files.get(i);
+			parsers[i] = new Parser(new Scanner(file));
+			parsers[i].setSharedScope(scope, i);
+			parsers[i].setRecovery(RECOVERY_CAP);
+			parsers[i].setListener(new ParseListener()
+			{
+				public void declare(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+				{
+					declaredIn.put(symbol, file);
+				}
+
+				public void resolve(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+				{
+					Path other = declaredIn.get(symbol);
+					if (other != null && other != file)
+					{
+						sb.append(file.getFileName()).append(": ").append(symbol.name()).append(" at ");
+						sb.append(lineNumber).append(":").append(charPosition);
+						sb.append(" resolves to ").append(other.getFileName()).append("\n");
+					}
+				}
+
+				public void enterScope(int depth)
+				{
+				}
+
+				public void exitScope(int depth)
+				{
+				}
+
+				public void error(ParseError error)
+				{
+				}
+			});
+			parsers[i].parse();
+		}
+		for (Parser parser : parsers)
+		{
+			parser.resolveSharedScope();
+		}
+		return sb.toString();
+	}
+
+	// One line per recorded symbol, in id order.
+	private static String metadata(SymbolMetadata metadata)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int id = 0; id < metadata.size(); id++)
+		{
+			sb.append(id).append(": ").append(metadata.symbol(id).name()).append(" ").append(metadata.kind(id));
+			sb.append(" ").append(metadata.typeName(id));
+			if (metadata.kind(id) == SymbolMetadata.Kind.FUNCTION)
+			{
+				sb.append(", ").append(metadata.parameterCount(id)).append(" parameter(s)");
+			}
+			if (metadata.kind(id) == SymbolMetadata.Kind.ARRAY)
+			{
+				sb.append(", dimensions ").append(Arrays.toString(metadata.dimensions(id)));
+			}
+			sb.append(", at ").append(metadata.lineNumber(id)).append(":").append(metadata.charPosition(id));
+			sb.append(", depth ").append(metadata.depth(id));
+			if (metadata.symbolId(metadata.symbol(id)) != id)
+			{
+				sb.append(" (symbolId ").append(metadata.symbolId(metadata.symbol(id))).append(")");
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	// Each file through ParsePool.parser and ParsePool.bufferedParser, which
+	// reset the thread's objects for it, checked against a fresh parser. The
+	// errors of every parse must still read the same after the last.
+	private static String pooled(List<Path> files) throws IOException
+	{
+		ParsePool.clear();
+		StringBuilder sb = new StringBuilder();
+		List<List<ParseError>> errors = new ArrayList<List<ParseError>>();
+		List<String> messages = new ArrayList<String>();
+		for (Path file : files)
+		{
+			Parser fresh = new Parser(new Scanner(file));
+			fresh.setRecovery(RECOVERY_CAP);
+			fresh.parse();
+			String outcome = outcome(fresh.hasError(), fresh.errorReport());
+			sb.append(file.getFileName()).append(": ").append(outcome);
+
+			for (int buffered = 0; buffered < 2; buffered++)
+			{
+				Parser p = buffered == 0 ? ParsePool.parser(file) : ParsePool.bufferedParser(file);
+				p.setRecovery(RECOVERY_CAP);
+				p.parse();
+				if (!outcome.equals(outcome(p.hasError(), p.errorReport())))
+				{
+					sb.append(buffered == 0 ? "The pooled parser disagrees.\n" : "The pooled buffer disagrees.\n");
+				}
+				errors.add(p.errors());
+				messages.add(messages(p.errors()));
+			}
+		}
+		for (int i = 0; i < errors.size(); i++)
+		{
+			if (!messages.get(i).equals(messages(errors.get(i))))
+			{
+				sb.append("The errors of ").append(files.get(i / 2).getFileName()).append(" changed.\n");
+			}
+		}
+		ParsePool.clear();
+		return sb.toString();
+	}
+
+	private static String messages(List<ParseError> errors)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (ParseError error : errors)
+		{
+			error.appendTo(sb);
+		}
+		return sb.toString();
+	}
+
+	// The set is read from a first line like "// built-ins: emit,sqrt". The
+	// file is parsed with names from the set's own table, which shares its
+	// scope, and with the standard names, into which the set is inserted.
+	// Both must come out the same.
+	private static String builtIns(Path file) throws IOException
+	{
+		String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+		String first = source.substring(0, source.indexOf('\n'));
+		List<String> names = new ArrayList<String>();
+		for (String builtIn : first.substring(first.indexOf(':') + 1).split(","))
+		{
+			if (!builtIn.trim().isEmpty())
+			{
+				names.add(builtIn.trim());
+			}
+		}
+
+		BuiltIns set;
+		try
+		{
+			set = new BuiltIns(names.toArray(new String[names.size()]));
+		}
+		catch (IllegalArgumentException e)
+		{
+			return e.getMessage() + "\n";
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("built-ins: ").append(set).append("\n");
+
+		Parser p = new Parser(new Scanner(new StringReader(source), set.newNameTable(), 1, 0, 0), set);
+		p.setRecovery(RECOVERY_CAP);
+		p.parse();
+		String outcome = outcome(p.hasError(), p.errorReport());
+		sb.append(outcome);
+
+		p = new Parser(new Scanner(new StringReader(source)), set);
+		p.setRecovery(RECOVERY_CAP);
+		p.parse();
+		if (!outcome.equals(outcome(p.hasError(), p.errorReport())))
+		{
+			sb.append("The standard name table disagrees.\n");
+		}
+		return sb.toString();
+	}
+
+	// The buffer's tokens, each checked against the Scanner's, and the outcome
+	// of a parse over it. The buffer is parsed again after a rewind, and after
+	// a reset to another source and back, which must change nothing.
+	private static String buffered(Path file) throws IOException
+	{
+		TokenBuffer tokens = TokenBuffer.lex(file);
+		StringBuilder sb = new StringBuilder();
+		Scanner scanner = new Scanner(file);
+		for (int i = 0; i < tokens.size(); i++)
+		{
+			String token = tokens.token(i).toString();
+			String scanned = scanner.next().toString();
+			sb.append(token).append("\n");
+			if (!token.equals(scanned))
+			{
+				sb.append("Scanner disagrees: ").append(scanned).append("\n");
+			}
+		}
+
+		Parser p = new Parser(tokens);
+		p.setRecovery(RECOVERY_CAP);
+		p.parse();
+		String outcome = outcome(p.hasError(), p.errorReport());
+		sb.append(outcome);
+
+		tokens.rewind();
+		p = new Parser(tokens);
+		p.setRecovery(RECOVERY_CAP);
+		p.parse();
+		if (!outcome.equals(outcome(p.hasError(), p.errorReport())))
+		{
+			sb.append("The rewound buffer disagrees.\n");
+		}
+
+		int size = tokens.size();
+		tokens.reset(new StringReader("var other : int;"));
+		tokens.reset(new StringReader(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+		p = new Parser(tokens);
+		p.setRecovery(RECOVERY_CAP);
+		p.parse();
+		if (tokens.size() != size || !outcome.equals(outcome(p.hasError(), p.errorReport())))
+		{
+			sb.append("The reset buffer disagrees.\n");
+		}
+		return sb.toString();
+	}
+
+	// Compiles the file into an empty ParseCache and again from it, then
+	// damages the one entry in several ways. Each must read as a miss with
+	// the outcome of a parse, and the entry written anew be a hit again.
+	private static String cached(Path file) throws IOException
+	{
+		Path directory = Files.createTempDirectory("crux-cache");
+		try
+		{
+			ParseCache cache = new ParseCache(directory);
+			StringBuilder sb = new StringBuilder();
+			appendCompile(sb, "empty", file, cache);
+			appendCompile(sb, "again", file, cache);
+
+			Path entry;
+			try (Stream<Path> walk = Files.walk(directory))
+			{
+				entry = walk.filter(p -> p.toString().endsWith(".bin")).findFirst().get();
+			}
+			byte[] bytes = Files.readAllBytes(entry);
+			String key = entry.getFileName().toString().replace(".bin", "");
+
+			Files.write(entry, Arrays.copyOf(bytes, bytes.length / 2));
+			appendCompile(sb, "truncated", file, cache);
+			appendCompile(sb, "again", file, cache);
+
+			// the length of the error report follows the header and hasError,
+			// the number of globals the report
+			int reportLength = 4 + 2 + ParseCache.VERSION.length() + 2 + key.length() + 1;
+			int globalCount = reportLength + 4 + ByteBuffer.wrap(bytes).getInt(reportLength);
+			byte[] damaged = bytes.clone();
+			ByteBuffer.wrap(damaged).putInt(reportLength, Integer.MAX_VALUE - 8);
+			Files.write(entry, damaged);
+			appendCompile(sb, "huge report", file, cache);
+
+			damaged = bytes.clone();
+			ByteBuffer.wrap(damaged).putInt(globalCount, Integer.MAX_VALUE - 8);
+			Files.write(entry, damaged);
+			appendCompile(sb, "huge count", file, cache);
+
+			Files.write(entry, "not an entry".getBytes(StandardCharsets.UTF_8));
+			appendCompile(sb, "garbage", file, cache);
+			appendCompile(sb, "again", file, cache);
+			return sb.toString();
+		}
+		finally
+		{
+			try (Stream<Path> walk = Files.walk(directory))
+			{
+				for (Path p : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList()))
+				{
+					Files.delete(p);
+				}
+			}
+		}
+	}
+
+	private static void appendCompile(StringBuilder sb, String step, Path file, ParseCache cache)
+	{
+		BatchCompiler.Result result = BatchCompiler.compile(file, RECOVERY_CAP, cache);
+		sb.append(step).append(result.cached() ? ", hit: " : ", miss: ").append(result.globals()).append("\n");
+		sb.append(outcome(result.hasError(), result.errorReport()));
+	}
+
+	// Every symbol with its definition and references, each position checked
+	// against symbolAt. The first index is printed once the other files have
+	// been indexed too, so the ids an index keeps on the symbols, the shared
+	// built-ins included, must hold up when another index sees them.
+	private static String crossReferences(List<Path> files) throws IOException
+	{
+		CrossReferenceIndex[] indexes = new CrossReferenceIndex[files.size()];
+		for (int i = 0; i < indexes.length; i++)
+		{
+			Parser p = new Parser(new Scanner(files.get(i)));
+			p.setRecovery(RECOVERY_CAP);
+			p.setDeferredResolution(true);
+			indexes[i] = new CrossReferenceIndex();
+			p.setListener(indexes[i]);
+			p.parse();
+		}
+
+		CrossReferenceIndex index = indexes[0];
+		StringBuilder sb = new StringBuilder();
+		for (int id = 0; id < index.size(); id++)
+		{
+			sb.append(index.symbol(id).name());
+			if (index.symbolId(index.symbol(id)) != id)
+			{
+				sb.append(" (symbolId ").append(index.symbolId(index.symbol(id))).append(")");
+			}
+			if (index.definitionLineNumber(id) < 0)
+			{
+				sb.append(": built-in");
+			}
+			else
+			{
+				sb.append(": defined at ");
+				appendPosition(sb, index, id, index.definitionLineNumber(id), index.definitionCharPosition(id));
+			}
+			int[] references = index.references(id);
+			sb.append(", ").append(index.referenceCount(id)).append(" reference(s)");
+			for (int i = 0; i < references.length; i += 2)
+			{
+				sb.append(i == 0 ? " at " : ", ");
+				appendPosition(sb, index, id, references[i], references[i + 1]);
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	private static void appendPosition(StringBuilder sb, CrossReferenceIndex index, int id, int lineNumber,
+			int charPosition)
+	{
+		sb.append(lineNumber).append(":").append(charPosition);
+		int found = index.symbolAt(lineNumber, charPosition);
+		if (found != id)
+		{
+			sb.append(" (symbolAt ").append(found).append(")");
+		}
+	}
+
+	// what the public tests print
+	private static String outcome(boolean hasError, String errorReport)
+	{
+		return hasError ? "Error parsing file.\n" + errorReport + "\n" : "Crux program successfully parsed.\n";
+	}
+
+	private static int compare(String outputFilename, String expectedFilename)
+	{
+		BufferedReader bufferedexpected;
+		BufferedReader bufferedoutput;
+
+		String lineExpected;
+		String lineOutput;
+
+		try
+		{
+			bufferedexpected = new BufferedReader(new FileReader(expectedFilename));
+			bufferedoutput = new BufferedReader(new FileReader(outputFilename));
+		}
+		catch (FileNotFoundException e)
+		{
+			e.printStackTrace();
+			return IO_ERROR;
+		}
+
+		int result = PASS;
+
+		try
+		{
+			while ((lineExpected = bufferedexpected.readLine()) != null)
+			{
+				lineOutput = bufferedoutput.readLine();
+				if (lineOutput == null)
+				{
+					result = FAIL;
+					break;
+				}
+				lineExpected = lineExpected.replaceAll("\\s+$", "");
+				lineOutput = lineOutput.replaceAll("\\s+$", "");
+				if (!lineExpected.equals(lineOutput))
+				{
+					result = FAIL;
+					break;
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			result = IO_ERROR;
+		}
+
+		try
+		{
+			bufferedoutput.close();
+			bufferedexpected.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+
+		return result;
+	}
+
 	public static void main(String args[]) throws IOException
 	{
 		int publicTestcaseNum = 11;
@@ -272,5 +849,43 @@ public class AutoTesterProject3
 		System.out.print("/");
 		System.out.println(privateTestcaseNum);
 
+		char[] modes = { 'R', 'D', 'M', 'I', 'X', 'C', 'F', 'T', 'B', 'U', 'S' };
+		int[] modeTestcaseNum = { 2, 2, 2, 2, 1, 2, 2, 2, 3, 1, 1 };
+
+		int modeTests = 0;
+		int modePass = 0;
+		for (int m = 0; m < modes.length; ++m)
+		{
+			for (int i = 1; i <= modeTestcaseNum[m]; ++i)
+			{
+				++modeTests;
+				try
+				{
+					if (testMode(modes[m], i) == PASS)
+					{
+						++modePass;
+					}
+					else
+					{
+						System.out.println(String.format("failed:%c%02d", modes[m], i));
+					}
+				}
+				catch (Exception e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+		System.out.print("Passed Mode Cases: ");
+		System.out.print(modePass);
+		System.out.print("/");
+		System.out.println(modeTests);
+
+		// a non-zero status fails the build
+		if (publicPass < publicTestcaseNum || privatePass < privateTestcaseNum || modePass < modeTests)
+		{
+			System.exit(1);
+		}
+
 	}
 }
@@ -0,0 +1,415 @@
+package crux;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Parses many source files on a bounded pool of workers. Every worker reuses
+// its own Scanner, Parser and scopes from file to file through ParsePool, so
+// workers share nothing but the pool.
+public class BatchCompiler
+{
+	private final int workers;
+	private final int maxErrors;
+	private final ParseCache cache;
+
+	public BatchCompiler(int workers)
+	{
+		this(workers, 0, null);
+	}
+
+	// With maxErrors above 0 every file is parsed with error recovery, see
+	// Parser.setRecovery. Files whose outcome is in the cache, if one is
+	// given, are not parsed at all.
+	public BatchCompiler(int workers, int maxErrors, ParseCache cache)
+	{
+		this.workers = workers;
+		this.maxErrors = maxErrors;
+		this.cache = cache;
+	}
+
+	public static class Result
+	{
+		private final Path path;
+		private final boolean hasError;
+		private final String errorReport;
+		private final long nanos;
+		private final List<String> globals;
+		private final boolean cached;
+
+		Result(Path path, boolean hasError, String errorReport, long nanos, List<String> globals, boolean cached)
+		{
+			this.path = path;
+			this.hasError = hasError;
+			this.errorReport = errorReport;
+			this.nanos = nanos;
+			this.globals = globals;
+			this.cached = cached;
+		}
+
+		public Path path()
+		{
+			return path;
+		}
+
+		public boolean hasError()
+		{
+			return hasError;
+		}
+
+		public String errorReport()
+		{
+			return errorReport;
+		}
+
+		public long nanos()
+		{
+			return nanos;
+		}
+
+		// names declared in the file's global scope, in declaration order
+		public List<String> globals()
+		{
+			return globals;
+		}
+
+		public boolean cached()
+		{
+			return cached;
+		}
+	}
+
+	// Collects the names declared in the global scope.
+	private static class GlobalNames implements ParseListener
+	{
+		private List<String> names = new ArrayList<String>();
+
+		public void declare(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+		{
+			if (depth == 0)
+			{
+				names.add(symbol.name());
+			}
+		}
+
+		public void resolve(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+		{
+		}
+
+		public void enterScope(int depth)
+		{
+		}
+
+		public void exitScope(int depth)
+		{
+		}
+
+		public void error(ParseError error)
+		{
+		}
+	}
+
+	// Expands directories to the .crx files below them, in sorted order.
+	public static List<Path> collect(List<String> arguments) throws IOException
+	{
+		List<Path> files = new ArrayList<Path>();
+		for (String argument : arguments)
+		{
+			Path path = Paths.get(argument);
+			if (Files.isDirectory(path))
+			{
+				try (Stream<Path> walk = Files.walk(path))
+				{
+					files.addAll(walk.filter(p -> p.toString().endsWith(".crx") && Files.isRegularFile(p)).sorted()
+							.collect(Collectors.toList()));
+				}
+			}
+			else
+			{
+				files.add(path);
+			}
+		}
+		return files;
+	}
+
+	public List<Result> compile(List<Path> files) throws InterruptedException
+	{
+		List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+		for (Path file : files)
+		{
+			tasks.add(() -> compile(file, maxErrors, cache));
+		}
+		return run(tasks, (index, cause) -> failed(files.get(index), cause, 0));
+	}
+
+	// Parses the files in parallel as the units of one program with a shared
+	// global scope, then settles the lookups and declarations that depend on
+	// other files. Nothing is cached, as every outcome depends on all files.
+	public List<Result> compileProgram(List<Path> files) throws InterruptedException
+	{
+		SharedGlobalScope globals = new SharedGlobalScope();
+		List<Callable<ProgramUnit>> tasks = new ArrayList<Callable<ProgramUnit>>();
+		for (int i = 0; i < files.size(); i++)
+		{
+			int unit = i;
+			tasks.add(() -> new ProgramUnit(files.get(unit), unit, globals, maxErrors));
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (ProgramUnit unit : run(tasks, (index, cause) -> new ProgramUnit(files.get(index), cause)))
+		{
+			results.add(unit.finish());
+		}
+		return Collections.unmodifiableList(results);
+	}
+
+	private static class ProgramUnit
+	{
+		private final Path file;
+		private Parser parser;
+		private GlobalNames globals = new GlobalNames();
+		private long nanos;
+		// why the file has no outcome of its own, or null
+		private String failure;
+
+		private ProgramUnit(Path file, int unit, SharedGlobalScope sharedScope, int maxErrors)
+		{
+			this.file = file;
+			long start = System.nanoTime();
+			try
+			{
+				parser = new Parser(new Scanner(file));
+			}
+			catch (IOException e)
+			{
+				failure = "Error accessing the source file: \"" + file + "\"";
+				return;
+			}
+			parser.setSource(file.toString());
+			parser.setSharedScope(sharedScope, unit);
+			parser.setRecovery(maxErrors);
+			parser.setListener(globals);
+			parser.parse();
+			nanos = System.nanoTime() - start;
+		}
+
+		// a unit whose parse threw
+		private ProgramUnit(Path file, Throwable cause)
+		{
+			this.file = file;
+			failure = failed(file, cause, 0).errorReport();
+		}
+
+		private Result finish()
+		{
+			if (failure != null)
+			{
+				return new Result(file, true, failure, nanos, Collections.<String>emptyList(), false);
+			}
+			long start = System.nanoTime();
+			parser.resolveSharedScope();
+			String report = parser.hasError() ? parser.errorReport() : "";
+			return new Result(file, parser.hasError(), report, nanos + System.nanoTime() - start,
+					Collections.unmodifiableList(globals.names), false);
+		}
+	}
+
+	// A task that throws gives the outcome failure makes of its index and the
+	// cause, so one bad file does not lose the results of the others.
+	private <T> List<T> run(List<Callable<T>> tasks, BiFunction<Integer, Throwable, T> failure)
+			throws InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, tasks.size())));
+		try
+		{
+			List<Future<T>> futures = new ArrayList<Future<T>>();
+			for (Callable<T> task : tasks)
+			{
+				futures.add(pool.submit(task));
+			}
+
+			List<T> results = new ArrayList<T>();
+			for (int i = 0; i < futures.size(); i++)
+			{
+				try
+				{
+					results.add(futures.get(i).get());
+				}
+				catch (ExecutionException e)
+				{
+					results.add(failure.apply(i, e.getCause()));
+				}
+			}
+			return Collections.unmodifiableList(results);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	private static Result failed(Path file, Throwable cause, long nanos)
+	{
+		return new Result(file, true, "Error parsing the source file: \"" + file + "\" (" + cause + ")", nanos,
+				Collections.<String>emptyList(), false);
+	}
+
+	public static Result compile(Path file)
+	{
+		return compile(file, 0, null);
+	}
+
+	public static Result compile(Path file, int maxErrors, ParseCache cache)
+	{
+		long start = System.nanoTime();
+		String key = null;
+		Parser p;
+		try
+		{
+			if (cache != null)
+			{
+				// the source is decoded with the default charset
+				key = cache.key(file, "recovery=" + maxErrors + ";charset=" + Charset.defaultCharset().name()
+						+ ";builtins=" + BuiltIns.standard());
+				ParseCache.Entry entry = cache.get(key);
+				if (entry != null)
+				{
+					return new Result(file, entry.hasError(), entry.errorReport(), System.nanoTime() - start,
+							entry.globals(), true);
+				}
+			}
+			p = ParsePool.parser(file);
+		}
+		catch (IOException e)
+		{
+			return new Result(file, true, "Error accessing the source file: \"" + file + "\"", System.nanoTime() - start,
+					Collections.<String>emptyList(), false);
+		}
+
+		GlobalNames globals = new GlobalNames();
+		p.setRecovery(maxErrors);
+		p.setListener(globals);
+		p.parse();
+		String report = p.hasError() ? p.errorReport() : "";
+
+		if (cache != null)
+		{
+			try
+			{
+				cache.put(key, new ParseCache.Entry(p.hasError(), report, globals.names));
+			}
+			catch (IOException e)
+			{
+				// a failed write only costs a parse next time
+			}
+		}
+		return new Result(file, p.hasError(), report, System.nanoTime() - start,
+				Collections.unmodifiableList(globals.names), false);
+	}
+
+	public static void print(List<Result> results, long wallNanos, int workers, PrintStream out)
+	{
+		int failed = 0;
+		long totalNanos = 0;
+		for (Result result : results)
+		{
+			totalNanos += result.nanos();
+			if (result.hasError())
+			{
+				failed++;
+				out.println(result.path() + ": Error parsing file. (" + timing(result) + ")");
+				out.println(result.errorReport());
+			}
+			else
+			{
+				out.println(result.path() + ": Crux program successfully parsed. (" + timing(result) + ")");
+			}
+		}
+		out.println("Parsed " + results.size() + " files, " + (results.size() - failed) + " succeeded, " + failed
+				+ " failed, in " + millis(wallNanos) + " ms (" + millis(totalNanos) + " ms of parsing, " + workers
+				+ " worker(s)).");
+	}
+
+	private static String timing(Result result)
+	{
+		return millis(result.nanos()) + " ms" + (result.cached() ? ", cached" : "");
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format("%.3f", nanos / 1e6);
+	}
+
+	// usage: BatchCompiler [-j workers] [-e max-errors] [--cache directory]
+	// [--program] [--stats] (directory | file)...
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		int workers = Runtime.getRuntime().availableProcessors();
+		int maxErrors = 0;
+		ParseCache cache = null;
+		boolean program = false;
+		boolean stats = false;
+		List<String> arguments = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-j") && i + 1 < args.length)
+			{
+				workers = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-e") && i + 1 < args.length)
+			{
+				maxErrors = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("--program"))
+			{
+				program = true;
+			}
+			else if (args[i].equals("--stats"))
+			{
+				stats = true;
+			}
+			else if (args[i].equals("--cache") && i + 1 < args.length)
+			{
+				cache = new ParseCache(Paths.get(args[++i]));
+			}
+			else
+			{
+				arguments.add(args[i]);
+			}
+		}
+
+		if (stats)
+		{
+			System.setProperty(Metrics.PROPERTY, "true");
+		}
+
+		List<Path> files = collect(arguments);
+		long start = System.nanoTime();
+		BatchCompiler compiler = new BatchCompiler(workers, maxErrors, cache);
+		List<Result> results = program ? compiler.compileProgram(files) : compiler.compile(files);
+		print(results, System.nanoTime() - start, workers, System.out);
+		Compiler.printStats(stats);
+
+		for (Result result : results)
+		{
+			if (result.hasError())
+			{
+				System.exit(-3);
+			}
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package crux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A set of built-in functions, frozen into a global scope that every parser
+// using the set shares as the parent of its own. The name tables the set
+// hands out have the built-ins interned first, so a built-in has the same
+// name id in every file and the shared symbols can be found by id.
+public class BuiltIns
+{
+	// comma separated names replacing the standard set, read once
+	public static final String PROPERTY = "crux.builtins";
+
+	private static final String[] DEFAULT_NAMES = { "readInt", "readFloat", "printBool", "printInt", "printFloat",
+			"println" };
+
+	private static final BuiltIns STANDARD = new BuiltIns(load());
+
+	// never changed once built, so they can be read from any thread
+	private final NameTable names;
+	private final SymbolTable scope;
+
+	public BuiltIns(String... builtIns)
+	{
+		names = new NameTable();
+		scope = new SymbolTable(names);
+		scope.setParent(null);
+		scope.setDepth(0);
+		for (String name : builtIns)
+		{
+			if (scope.tryInsertBuiltIn(names.intern(name)) == null)
+			{
+				throw new IllegalArgumentException("Duplicate built-in " + name + ".");
+			}
+		}
+		scope.freeze();
+	}
+
+	public static BuiltIns standard()
+	{
+		return STANDARD;
+	}
+
+	private static String[] load()
+	{
+		String property = System.getProperty(PROPERTY);
+		if (property == null)
+		{
+			return DEFAULT_NAMES;
+		}
+		List<String> names = new ArrayList<String>();
+		for (String name : property.split(","))
+		{
+			if (!name.trim().isEmpty())
+			{
+				names.add(name.trim());
+			}
+		}
+		return names.toArray(new String[names.size()]);
+	}
+
+	public int size()
+	{
+		return names.size();
+	}
+
+	// the built-ins in declaration order, which is also their name id
+	public String name(int id)
+	{
+		return names.name(id);
+	}
+
+	// A name table to scan a file with, so its parser can share the scope.
+	public NameTable newNameTable()
+	{
+		return new NameTable(names);
+	}
+
+	// the table the others are copied from, not to be changed
+	NameTable names()
+	{
+		return names;
+	}
+
+	// Whether the built-ins have the ids of this set in the given table.
+	boolean seeds(NameTable table)
+	{
+		if (table.size() < names.size())
+		{
+			return false;
+		}
+		for (int id = 0; id < names.size(); id++)
+		{
+			if (!names.name(id).equals(table.name(id)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	SymbolTable scope()
+	{
+		return scope;
+	}
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int id = 0; id < names.size(); id++)
+		{
+			sb.append(id == 0 ? "" : ",").append(names.name(id));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,171 @@
+package crux;
+
+import java.util.Arrays;
+
+public class ChainedScopeStack implements ScopeStack
+{
+	private SymbolTable current;
+	private BuiltIns builtIns;
+
+	// Tables of closed scopes by depth, opened again instead of allocating
+	// new ones. Once a snapshot is taken it may refer to any table in use,
+	// so from then on until the next reset no table is reused.
+	private SymbolTable[] spare = new SymbolTable[8];
+	private boolean snapshotted;
+
+	public ChainedScopeStack(NameTable names)
+	{
+		current = new SymbolTable(names);
+		current.setParent(null);
+		current.setDepth(0);
+	}
+
+	// Starts with the built-ins in scope. If the names were interned with
+	// builtIns.newNameTable() the shared built-ins scope is used as is,
+	// otherwise they are inserted into the global scope.
+	public ChainedScopeStack(NameTable names, BuiltIns builtIns)
+	{
+		this(names);
+		this.builtIns = builtIns;
+		addBuiltIns(names);
+	}
+
+	private void addBuiltIns(NameTable names)
+	{
+		if (builtIns.seeds(names))
+		{
+			current.setParent(builtIns.scope());
+		}
+		else
+		{
+			for (int id = 0; id < builtIns.size(); id++)
+			{
+				current.tryInsertBuiltIn(names.intern(builtIns.name(id)));
+			}
+		}
+	}
+
+	public NameTable getNames()
+	{
+		return current.getNames();
+	}
+
+	public int getDepth()
+	{
+		return current.getDepth();
+	}
+
+	public void enterScope()
+	{
+		int depth = current.getDepth() + 1;
+		SymbolTable table;
+		if (depth < spare.length && spare[depth] != null)
+		{
+			table = spare[depth];
+			spare[depth] = null;
+		}
+		else
+		{
+			table = new SymbolTable(current.getNames());
+		}
+		table.setDepth(depth);
+		table.setParent(current);
+		current = table;
+	}
+
+	public void exitScope()
+	{
+		SymbolTable table = current;
+		current = current.getParent();
+		if (!snapshotted)
+		{
+			int depth = table.getDepth();
+			if (depth >= spare.length)
+			{
+				spare = Arrays.copyOf(spare, Math.max(depth + 1, spare.length * 2));
+			}
+			table.reset(table.getNames());
+			spare[depth] = table;
+		}
+	}
+
+	public Symbol find(int id)
+	{
+		return current.find(id);
+	}
+
+	public Symbol lookup(int id) throws SymbolNotFoundError
+	{
+		Symbol symbol = find(id);
+		if (symbol == null)
+		{
+			throw new SymbolNotFoundError(current.getNames().name(id));
+		}
+		return symbol;
+	}
+
+	public Symbol insert(int id) throws RedeclarationError
+	{
+		Symbol symbol = tryInsert(id);
+		if (symbol == null)
+		{
+			throw new RedeclarationError(current.declared(id));
+		}
+		return symbol;
+	}
+
+	public Symbol tryInsert(int id)
+	{
+		return current.tryInsert(id);
+	}
+
+	public Symbol tryInsertBuiltIn(int id)
+	{
+		return current.tryInsertBuiltIn(id);
+	}
+
+	public ScopeSnapshot snapshot()
+	{
+		if (!snapshotted)
+		{
+			snapshotted = true;
+			Arrays.fill(spare, null);
+		}
+		return current.snapshot();
+	}
+
+	public void reset(NameTable names)
+	{
+		while (current.getDepth() > 0)
+		{
+			exitScope();
+		}
+		if (snapshotted)
+		{
+			current = new SymbolTable(names);
+			snapshotted = false;
+		}
+		else
+		{
+			current.reset(names);
+			for (SymbolTable table : spare)
+			{
+				if (table != null)
+				{
+					table.reset(names);
+				}
+			}
+		}
+		current.setParent(null);
+		current.setDepth(0);
+		if (builtIns != null)
+		{
+			addBuiltIns(names);
+		}
+	}
+
+	public String toString()
+	{
+		return current.toString();
+	}
+}
@@ -1,15 +1,40 @@
 package crux;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Compiler {
-    public static void main(String[] args)
+    // usage: Compiler [--stats] file, or the arguments of BatchCompiler
+    public static void main(String[] args) throws Exception
     {
-        String sourceFilename = args[0];
+        boolean stats = false;
+        List<String> files = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--stats")) {
+                stats = true;
+            } else {
+                files.add(arg);
+            }
+        }
+
+        if (files.size() != 1 || Files.isDirectory(Paths.get(files.get(0)))) {
+            BatchCompiler.main(args);
+            return;
+        }
+
+        // has to happen before anything reads Metrics.ENABLED
+        if (stats) {
+            System.setProperty(Metrics.PROPERTY, "true");
+        }
+
+        String sourceFilename = files.get(0);
         
         Scanner s = null;
         try {
-            s = new Scanner(new FileReader(sourceFilename));
+            s = new Scanner(Paths.get(sourceFilename));
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Error accessing the source file: \"" + sourceFilename + "\"");
@@ -17,13 +42,26 @@ public class Compiler {
         }
 
         Parser p = new Parser(s);
+        p.setSource(sourceFilename);
         p.parse();
         if (p.hasError()) {
             System.out.println("Error parsing file.");
-            System.out.println(p.errorReport());
+            PrintWriter out = new PrintWriter(System.out);
+            p.writeErrorReport(out);
+            out.println();
+            out.flush();
+            printStats(stats);
             System.exit(-3);
         }
         System.out.println("Crux program successfully parsed.");
+        printStats(stats);
+    }
+
+    static void printStats(boolean stats)
+    {
+        if (stats) {
+            System.err.print(Metrics.get());
+        }
     }
 }
     
@@ -0,0 +1,293 @@
+package crux;
+
+import java.util.Arrays;
+
+// A def-use index filled in while parsing: set it as the parser's listener.
+// Symbols get dense ids in the order they are first seen, kept on the Symbol
+// itself, or for the few shared ones in a list of their own. Every occurrence,
+// definition or reference, is kept in packed int arrays and chained to the
+// next occurrence of the same symbol in source order. Occurrences normally
+// arrive in source order; those that do not, like deferred lookups, cost a
+// walk of the chain and a sort on the next symbolAt.
+public class CrossReferenceIndex implements ParseListener
+{
+	private static final int INITIAL_CAPACITY = 64;
+
+	// per symbol id
+	private Symbol[] symbols = new Symbol[INITIAL_CAPACITY];
+	private int[] nameIds = new int[INITIAL_CAPACITY];
+	private int[] definitions = new int[INITIAL_CAPACITY];
+	private int[] firstReferences = new int[INITIAL_CAPACITY];
+	private int[] lastReferences = new int[INITIAL_CAPACITY];
+	private int[] referenceCounts = new int[INITIAL_CAPACITY];
+	private int size;
+
+	// ids of the shared symbols seen, the built-ins
+	private int[] sharedIds = new int[8];
+	private int sharedCount;
+
+	// per occurrence; next links references of the same symbol, -1 ends
+	private int[] lineNumbers = new int[INITIAL_CAPACITY];
+	private int[] charPositions = new int[INITIAL_CAPACITY];
+	private int[] owners = new int[INITIAL_CAPACITY];
+	private int[] next = new int[INITIAL_CAPACITY];
+	private int occurrences;
+	// occurrences in source order, only needed once one came out of order
+	private boolean ordered = true;
+	private int[] byPosition;
+
+	public void declare(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+	{
+		int id = id(nameId, symbol);
+		definitions[id] = occurrence(id, lineNumber, charPosition);
+	}
+
+	public void resolve(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth)
+	{
+		int id = id(nameId, symbol);
+		int occurrence = occurrence(id, lineNumber, charPosition);
+		if (firstReferences[id] < 0)
+		{
+			firstReferences[id] = occurrence;
+			lastReferences[id] = occurrence;
+		}
+		else if (before(occurrence, firstReferences[id]))
+		{
+			next[occurrence] = firstReferences[id];
+			firstReferences[id] = occurrence;
+		}
+		else if (before(occurrence, lastReferences[id]))
+		{
+			int previous = firstReferences[id];
+			while (before(next[previous], occurrence))
+			{
+				previous = next[previous];
+			}
+			next[occurrence] = next[previous];
+			next[previous] = occurrence;
+		}
+		else
+		{
+			next[lastReferences[id]] = occurrence;
+			lastReferences[id] = occurrence;
+		}
+		referenceCounts[id]++;
+	}
+
+	public void enterScope(int depth)
+	{
+	}
+
+	public void exitScope(int depth)
+	{
+	}
+
+	public void error(ParseError error)
+	{
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	// -1 if the symbol never came up
+	public int symbolId(Symbol symbol)
+	{
+		if (symbol.shared)
+		{
+			for (int i = 0; i < sharedCount; i++)
+			{
+				if (symbols[sharedIds[i]] == symbol)
+				{
+					return sharedIds[i];
+				}
+			}
+			return -1;
+		}
+		// another index may have seen the symbol since
+		int id = symbol.referenceId;
+		return id >= 0 && id < size && symbols[id] == symbol ? id : -1;
+	}
+
+	public Symbol symbol(int id)
+	{
+		return symbols[id];
+	}
+
+	public int nameId(int id)
+	{
+		return nameIds[id];
+	}
+
+	// Built-ins have no definition in the source and give -1.
+	public int definitionLineNumber(int id)
+	{
+		return definitions[id] < 0 ? -1 : lineNumbers[definitions[id]];
+	}
+
+	public int definitionCharPosition(int id)
+	{
+		return definitions[id] < 0 ? -1 : charPositions[definitions[id]];
+	}
+
+	public int referenceCount(int id)
+	{
+		return referenceCounts[id];
+	}
+
+	// The positions of every reference to the symbol, in source order, packed
+	// as line and char position pairs.
+	public int[] references(int id)
+	{
+		int[] positions = new int[referenceCounts[id] * 2];
+		int i = 0;
+		for (int occurrence = firstReferences[id]; occurrence >= 0; occurrence = next[occurrence])
+		{
+			positions[i++] = lineNumbers[occurrence];
+			positions[i++] = charPositions[occurrence];
+		}
+		return positions;
+	}
+
+	// The symbol whose name covers the given position, defined or referenced
+	// there, or -1.
+	public int symbolAt(int lineNumber, int charPosition)
+	{
+		if (!ordered && byPosition == null)
+		{
+			sortByPosition();
+		}
+
+		int low = 0;
+		int high = occurrences - 1;
+		int found = -1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int occurrence = ordered ? middle : byPosition[middle];
+			if (lineNumbers[occurrence] < lineNumber
+					|| (lineNumbers[occurrence] == lineNumber && charPositions[occurrence] <= charPosition))
+			{
+				found = occurrence;
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+
+		if (found < 0 || lineNumbers[found] != lineNumber)
+		{
+			return -1;
+		}
+		int id = owners[found];
+		return charPosition < charPositions[found] + symbols[id].name().length() ? id : -1;
+	}
+
+	private int id(int nameId, Symbol symbol)
+	{
+		int known = symbolId(symbol);
+		if (known >= 0)
+		{
+			return known;
+		}
+
+		if (size == symbols.length)
+		{
+			int capacity = size * 2;
+			symbols = Arrays.copyOf(symbols, capacity);
+			nameIds = Arrays.copyOf(nameIds, capacity);
+			definitions = Arrays.copyOf(definitions, capacity);
+			firstReferences = Arrays.copyOf(firstReferences, capacity);
+			lastReferences = Arrays.copyOf(lastReferences, capacity);
+			referenceCounts = Arrays.copyOf(referenceCounts, capacity);
+		}
+
+		int id = size++;
+		if (symbol.shared)
+		{
+			if (sharedCount == sharedIds.length)
+			{
+				sharedIds = Arrays.copyOf(sharedIds, sharedCount * 2);
+			}
+			sharedIds[sharedCount++] = id;
+		}
+		else
+		{
+			symbol.referenceId = id;
+		}
+		symbols[id] = symbol;
+		nameIds[id] = nameId;
+		definitions[id] = -1;
+		firstReferences[id] = -1;
+		lastReferences[id] = -1;
+		return id;
+	}
+
+	private int occurrence(int id, int lineNumber, int charPosition)
+	{
+		if (occurrences == lineNumbers.length)
+		{
+			int capacity = occurrences * 2;
+			lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+			charPositions = Arrays.copyOf(charPositions, capacity);
+			owners = Arrays.copyOf(owners, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+
+		int occurrence = occurrences++;
+		lineNumbers[occurrence] = lineNumber;
+		charPositions[occurrence] = charPosition;
+		owners[occurrence] = id;
+		next[occurrence] = -1;
+		if (occurrence > 0 && before(occurrence, occurrence - 1))
+		{
+			ordered = false;
+		}
+		byPosition = null;
+		return occurrence;
+	}
+
+	private boolean before(int a, int b)
+	{
+		return lineNumbers[a] < lineNumbers[b]
+				|| (lineNumbers[a] == lineNumbers[b] && charPositions[a] < charPositions[b]);
+	}
+
+	// Sorts the positions packed into longs, line above char position, then
+	// puts each occurrence at the first free rank of its position, so equal
+	// positions keep the order they came in.
+	private void sortByPosition()
+	{
+		long[] positions = new long[occurrences];
+		for (int i = 0; i < occurrences; i++)
+		{
+			positions[i] = position(i);
+		}
+		Arrays.sort(positions);
+
+		byPosition = new int[occurrences];
+		Arrays.fill(byPosition, -1);
+		for (int i = 0; i < occurrences; i++)
+		{
+			long position = position(i);
+			int rank = Arrays.binarySearch(positions, position);
+			while (rank > 0 && positions[rank - 1] == position)
+			{
+				rank--;
+			}
+			while (byPosition[rank] >= 0)
+			{
+				rank++;
+			}
+			byPosition[rank] = i;
+		}
+	}
+
+	private long position(int occurrence)
+	{
+		return ((long) lineNumbers[occurrence] << 32) | charPositions[occurrence];
+	}
+}
@@ -0,0 +1,267 @@
+package crux;
+
+import java.util.Arrays;
+
+public class FlatScopeStack implements ScopeStack
+{
+	private static final int INITIAL_CAPACITY = 64;
+
+	private NameTable names;
+	private int depth;
+
+	// binding index + 1 of the innermost binding per name id, 0 if unbound
+	private int[] heads;
+
+	// Bindings are append-only and never overwritten. Each one links to the
+	// binding below it on the visible stack, so the visible stack at any point
+	// is a persistent list identified by its top and can be snapshot in O(1).
+	private int[] bindingIds;
+	private int[] bindingDepths;
+	private int[] bindingShadows;
+	private int[] bindingBelow;
+	private Symbol[] bindingSymbols;
+	private int count;
+	private int top;
+
+	// visible top at each enterScope
+	private int[] marks;
+
+	// snapshots read the bindings, which a reset may then not overwrite
+	private boolean snapshotted;
+
+	public FlatScopeStack(NameTable names)
+	{
+		this.names = names;
+		this.depth = 0;
+		this.heads = new int[Math.max(names.size(), INITIAL_CAPACITY)];
+		this.bindingIds = new int[INITIAL_CAPACITY];
+		this.bindingDepths = new int[INITIAL_CAPACITY];
+		this.bindingShadows = new int[INITIAL_CAPACITY];
+		this.bindingBelow = new int[INITIAL_CAPACITY];
+		this.bindingSymbols = new Symbol[INITIAL_CAPACITY];
+		this.count = 0;
+		this.top = 0;
+		this.marks = new int[16];
+	}
+
+	public NameTable getNames()
+	{
+		return names;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public void enterScope()
+	{
+		if (depth + 1 == marks.length)
+		{
+			int[] newMarks = new int[marks.length * 2];
+			System.arraycopy(marks, 0, newMarks, 0, marks.length);
+			marks = newMarks;
+		}
+		marks[++depth] = top;
+	}
+
+	public void exitScope()
+	{
+		int mark = marks[depth--];
+		while (top != mark)
+		{
+			int index = top - 1;
+			heads[bindingIds[index]] = bindingShadows[index];
+			top = bindingBelow[index];
+		}
+	}
+
+	// Always found without walking any scopes, so every lookup counts 0 hops.
+	public Symbol find(int id)
+	{
+		if (id < heads.length && heads[id] != 0)
+		{
+			if (Metrics.ENABLED)
+			{
+				Metrics.lookup(0, true);
+			}
+			return bindingSymbols[heads[id] - 1];
+		}
+		if (Metrics.ENABLED)
+		{
+			Metrics.lookup(0, false);
+		}
+		return null;
+	}
+
+	public Symbol lookup(int id) throws SymbolNotFoundError
+	{
+		Symbol symbol = find(id);
+		if (symbol == null)
+		{
+			throw new SymbolNotFoundError(names.name(id));
+		}
+		return symbol;
+	}
+
+	public Symbol insert(int id) throws RedeclarationError
+	{
+		Symbol symbol = tryInsert(id);
+		if (symbol == null)
+		{
+			throw new RedeclarationError(bindingSymbols[heads[id] - 1]);
+		}
+		return symbol;
+	}
+
+	public Symbol tryInsert(int id)
+	{
+		Symbol symbol = tryInsertBuiltIn(id);
+		if (symbol != null && Metrics.ENABLED)
+		{
+			Metrics.inserted();
+		}
+		return symbol;
+	}
+
+	public Symbol tryInsertBuiltIn(int id)
+	{
+		if (id >= heads.length)
+		{
+			int[] newHeads = new int[Math.max(heads.length * 2, id + 1)];
+			System.arraycopy(heads, 0, newHeads, 0, heads.length);
+			heads = newHeads;
+		}
+
+		int shadow = heads[id];
+		if (shadow != 0 && bindingDepths[shadow - 1] == depth)
+		{
+			return null;
+		}
+
+		if (count == bindingIds.length)
+		{
+			growBindings();
+		}
+
+		Symbol symbol = new Symbol(names.name(id));
+		bindingIds[count] = id;
+		bindingDepths[count] = depth;
+		bindingShadows[count] = shadow;
+		bindingBelow[count] = top;
+		bindingSymbols[count] = symbol;
+		top = ++count;
+		heads[id] = top;
+		return symbol;
+	}
+
+	private void growBindings()
+	{
+		int capacity = bindingIds.length * 2;
+		int[] newIds = new int[capacity];
+		int[] newDepths = new int[capacity];
+		int[] newShadows = new int[capacity];
+		int[] newBelow = new int[capacity];
+		Symbol[] newSymbols = new Symbol[capacity];
+		System.arraycopy(bindingIds, 0, newIds, 0, count);
+		System.arraycopy(bindingDepths, 0, newDepths, 0, count);
+		System.arraycopy(bindingShadows, 0, newShadows, 0, count);
+		System.arraycopy(bindingBelow, 0, newBelow, 0, count);
+		System.arraycopy(bindingSymbols, 0, newSymbols, 0, count);
+		bindingIds = newIds;
+		bindingDepths = newDepths;
+		bindingShadows = newShadows;
+		bindingBelow = newBelow;
+		bindingSymbols = newSymbols;
+	}
+
+	public ScopeSnapshot snapshot()
+	{
+		snapshotted = true;
+		return new Snapshot(bindingDepths, bindingBelow, bindingSymbols, top);
+	}
+
+	public void reset(NameTable names)
+	{
+		if (snapshotted)
+		{
+			bindingIds = new int[INITIAL_CAPACITY];
+			bindingDepths = new int[INITIAL_CAPACITY];
+			bindingShadows = new int[INITIAL_CAPACITY];
+			bindingBelow = new int[INITIAL_CAPACITY];
+			bindingSymbols = new Symbol[INITIAL_CAPACITY];
+			snapshotted = false;
+		}
+		else
+		{
+			Arrays.fill(bindingSymbols, 0, count, null);
+		}
+		Arrays.fill(heads, 0);
+		this.names = names;
+		this.depth = 0;
+		this.count = 0;
+		this.top = 0;
+	}
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		render(sb, bindingDepths, bindingBelow, bindingSymbols, top);
+		return sb.toString();
+	}
+
+	// Takes the arrays rather than the stack, as growing or resetting it
+	// replaces them while the old ones still hold what a snapshot saw.
+	private static void render(StringBuilder sb, int[] bindingDepths, int[] bindingBelow, Symbol[] bindingSymbols,
+			int from)
+	{
+		int visible = 0;
+		for (int b = from; b != 0; b = bindingBelow[b - 1])
+		{
+			visible++;
+		}
+
+		int[] order = new int[visible];
+		for (int b = from; b != 0; b = bindingBelow[b - 1])
+		{
+			order[--visible] = b - 1;
+		}
+
+		for (int index : order)
+		{
+			for (int j = 0; j < bindingDepths[index]; j++)
+			{
+				sb.append("  ");
+			}
+			sb.append(bindingSymbols[index].toString()).append('\n');
+		}
+	}
+
+	private static class Snapshot implements ScopeSnapshot
+	{
+		private final int[] depths;
+		private final int[] below;
+		private final Symbol[] symbols;
+		private final int top;
+
+		private Snapshot(int[] depths, int[] below, Symbol[] symbols, int top)
+		{
+			this.depths = depths;
+			this.below = below;
+			this.symbols = symbols;
+			this.top = top;
+		}
+
+		public void appendTo(StringBuilder sb)
+		{
+			render(sb, depths, below, symbols, top);
+		}
+
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder();
+			appendTo(sb);
+			return sb.toString();
+		}
+	}
+}
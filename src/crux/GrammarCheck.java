@@ -0,0 +1,248 @@
+package crux;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import crux.Token.Kind;
+
+// Recomputes the FIRST set of every rule written as a "// rule := ..." comment
+// in Parser.java and compares it with the mask declared in NonTerminal.
+// Rules without a comment, such as op0, are taken from NonTerminal as given.
+public class GrammarCheck
+{
+	private Map<NonTerminal, List<String>> rules = new LinkedHashMap<NonTerminal, List<String>>();
+	private Map<NonTerminal, Long> first = new LinkedHashMap<NonTerminal, Long>();
+	private Map<NonTerminal, Boolean> nullable = new LinkedHashMap<NonTerminal, Boolean>();
+
+	private List<String> body;
+	private int position;
+	private long expressionFirst;
+
+	public GrammarCheck(List<String> source)
+	{
+		String rule = null;
+		for (String line : source)
+		{
+			String text = line.trim();
+			if (!text.startsWith("//"))
+			{
+				addRule(rule);
+				rule = null;
+				continue;
+			}
+
+			text = text.substring(2).trim();
+			if (text.contains(":="))
+			{
+				addRule(rule);
+				rule = text;
+			}
+			else if (rule != null)
+			{
+				rule += " " + text;
+			}
+		}
+		addRule(rule);
+	}
+
+	private void addRule(String rule)
+	{
+		if (rule == null)
+		{
+			return;
+		}
+
+		int split = rule.indexOf(":=");
+		NonTerminal nonTerminal = nonTerminal(rule.substring(0, split).trim());
+		rules.put(nonTerminal, tokenize(rule.substring(split + 2)));
+	}
+
+	private static NonTerminal nonTerminal(String name)
+	{
+		return NonTerminal.valueOf(name.toUpperCase().replace('-', '_'));
+	}
+
+	private static List<String> tokenize(String body)
+	{
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		while (i < body.length())
+		{
+			char c = body.charAt(i);
+			if (Character.isWhitespace(c))
+			{
+				i++;
+			}
+			else if (c == '"')
+			{
+				int end = body.indexOf('"', i + 1);
+				tokens.add(body.substring(i, end + 1));
+				i = end + 1;
+			}
+			else if (Character.isLetterOrDigit(c))
+			{
+				int end = i;
+				while (end < body.length() && (Character.isLetterOrDigit(body.charAt(end)) || body.charAt(end) == '-'
+						|| body.charAt(end) == '_'))
+				{
+					end++;
+				}
+				tokens.add(body.substring(i, end));
+				i = end;
+			}
+			else
+			{
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+		return tokens;
+	}
+
+	// Returns the rules whose declared FIRST set differs from the grammar.
+	public List<String> check()
+	{
+		for (NonTerminal nonTerminal : rules.keySet())
+		{
+			first.put(nonTerminal, 0L);
+			nullable.put(nonTerminal, false);
+		}
+
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Map.Entry<NonTerminal, List<String>> rule : rules.entrySet())
+			{
+				body = rule.getValue();
+				position = 0;
+				boolean empty = alternatives();
+				long mask = expressionFirst;
+				if (mask != first.get(rule.getKey()) || empty != nullable.get(rule.getKey()))
+				{
+					first.put(rule.getKey(), mask);
+					nullable.put(rule.getKey(), empty);
+					changed = true;
+				}
+			}
+		}
+
+		List<String> mismatches = new ArrayList<String>();
+		for (NonTerminal nonTerminal : rules.keySet())
+		{
+			long expected = first.get(nonTerminal);
+			if (expected != nonTerminal.firstSetMask())
+			{
+				mismatches.add(nonTerminal + ": grammar " + kinds(expected) + ", declared "
+						+ kinds(nonTerminal.firstSetMask()));
+			}
+		}
+		return mismatches;
+	}
+
+	// alternatives := sequence { "|" sequence }
+	private boolean alternatives()
+	{
+		long mask = 0;
+		boolean empty = sequence();
+		mask |= expressionFirst;
+		while (position < body.size() && body.get(position).equals("|"))
+		{
+			position++;
+			empty |= sequence();
+			mask |= expressionFirst;
+		}
+		expressionFirst = mask;
+		return empty;
+	}
+
+	// sequence := { term }
+	private boolean sequence()
+	{
+		long mask = 0;
+		boolean empty = true;
+		while (position < body.size() && !isClose(body.get(position)) && !body.get(position).equals("|"))
+		{
+			boolean termEmpty = term();
+			if (empty)
+			{
+				mask |= expressionFirst;
+			}
+			empty &= termEmpty;
+		}
+		expressionFirst = mask;
+		return empty;
+	}
+
+	// term := "{" alternatives "}" | "[" alternatives "]" | terminal | rule
+	private boolean term()
+	{
+		String token = body.get(position++);
+		if (token.equals("{") || token.equals("["))
+		{
+			alternatives();
+			position++;
+			return true;
+		}
+
+		if (token.startsWith("\""))
+		{
+			expressionFirst = NonTerminal.of(Token.findKind(token.substring(1, token.length() - 1)));
+			return false;
+		}
+
+		if (Character.isUpperCase(token.charAt(0)))
+		{
+			expressionFirst = NonTerminal.of(Kind.valueOf(token));
+			return false;
+		}
+
+		NonTerminal nonTerminal = nonTerminal(token);
+		if (!rules.containsKey(nonTerminal))
+		{
+			expressionFirst = nonTerminal.firstSetMask();
+			return false;
+		}
+		expressionFirst = first.get(nonTerminal);
+		return nullable.get(nonTerminal);
+	}
+
+	private static boolean isClose(String token)
+	{
+		return token.equals("}") || token.equals("]");
+	}
+
+	private static String kinds(long mask)
+	{
+		List<Kind> kinds = new ArrayList<Kind>();
+		for (Kind kind : Kind.values())
+		{
+			if ((mask & (1L << kind.ordinal())) != 0)
+			{
+				kinds.add(kind);
+			}
+		}
+		return kinds.toString();
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Path parser = Paths.get(args.length > 0 ? args[0] : "src/crux/Parser.java");
+		List<String> mismatches = new GrammarCheck(Files.readAllLines(parser)).check();
+		for (String mismatch : mismatches)
+		{
+			System.err.println("FIRST set mismatch " + mismatch);
+		}
+		if (!mismatches.isEmpty())
+		{
+			System.exit(1);
+		}
+		System.out.println("FIRST sets match the grammar.");
+	}
+}
@@ -0,0 +1,656 @@
+package crux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Keeps the parse of an edited document up to date for editor integration.
+// The source is cut into regions, one per top-level declaration, each running
+// from the end of the previous declaration to the end of its own. An edit
+// inside one region re-lexes and re-parses just that region, then re-parses
+// the later declarations that declare or reference a global name it changed.
+// Edits that span regions, or that move where a declaration ends, fall back
+// to parsing the whole document again. The error report always reads the
+// same as a full Parser run over the current text.
+public class IncrementalParser
+{
+	private char[] text;
+	private int length;
+	private NameTable names;
+
+	private Symbol[] builtIns;
+	private List<Unit> units;
+	private Scopes scopes;
+	// reset for every region parsed after the first
+	private Parser parser;
+
+	// for each name id, the units declaring it at the top level in ascending
+	// order, built-ins first as -1 - index
+	private int[][] declarers;
+	private Symbol[][] declared;
+	private int[] declarerCounts;
+
+	public IncrementalParser(String source)
+	{
+		text = source.toCharArray();
+		length = text.length;
+		names = BuiltIns.standard().newNameTable();
+		scopes = new Scopes();
+
+		// built-ins have the first ids
+		builtIns = new Symbol[BuiltIns.standard().size()];
+		for (int i = 0; i < builtIns.length; i++)
+		{
+			builtIns[i] = new Symbol(names.name(i));
+		}
+		reparse();
+	}
+
+	public static class Change
+	{
+		private final boolean fullReparse;
+		private final int reparsed;
+		private final List<String> added;
+		private final List<String> removed;
+
+		Change(boolean fullReparse, int reparsed, List<String> added, List<String> removed)
+		{
+			this.fullReparse = fullReparse;
+			this.reparsed = reparsed;
+			this.added = Collections.unmodifiableList(added);
+			this.removed = Collections.unmodifiableList(removed);
+		}
+
+		public boolean isFullReparse()
+		{
+			return fullReparse;
+		}
+
+		// number of top-level declarations parsed again
+		public int reparsed()
+		{
+			return reparsed;
+		}
+
+		// Messages of errors that appeared or went away with the edit. Errors
+		// that only moved with the text around them are not listed.
+		public List<String> added()
+		{
+			return added;
+		}
+
+		public List<String> removed()
+		{
+			return removed;
+		}
+	}
+
+	// A top-level declaration and what parsing it found.
+	private static class Unit
+	{
+		// scanner position at the start of the region and after the last token
+		// of the declaration
+		private int startOffset;
+		private int startLine;
+		private int startColumn;
+		private int endOffset;
+		private int endLine;
+		private int endColumn;
+
+		// the name declared at the top level, -1 if none, and its symbol if the
+		// declaration went in
+		private int nameId = -1;
+		private Symbol symbol;
+
+		// sorted global names looked up from inside the declaration
+		private int[] references = new int[4];
+		private int referenceCount;
+
+		private List<ParseError> errors;
+		// ended in a syntax error, so no declarations follow
+		private boolean failed;
+
+		private void reference(int id)
+		{
+			if (referenceCount == references.length)
+			{
+				references = Arrays.copyOf(references, referenceCount * 2);
+			}
+			references[referenceCount++] = id;
+		}
+
+		private void sortReferences()
+		{
+			Arrays.sort(references, 0, referenceCount);
+			int count = 0;
+			for (int i = 0; i < referenceCount; i++)
+			{
+				if (count == 0 || references[count - 1] != references[i])
+				{
+					references[count++] = references[i];
+				}
+			}
+			referenceCount = count;
+		}
+
+		private boolean dependsOn(int[] changed, int count)
+		{
+			for (int i = 0; i < count; i++)
+			{
+				if (changed[i] == nameId || Arrays.binarySearch(references, 0, referenceCount, changed[i]) >= 0)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// moves the unit, which lies after an edit, along with the text
+		private void shift(int chars, int lines)
+		{
+			startOffset += chars;
+			endOffset += chars;
+			startLine += lines;
+			endLine += lines;
+			if (lines != 0)
+			{
+				for (int i = 0; i < errors.size(); i++)
+				{
+					errors.set(i, errors.get(i).shift(lines));
+				}
+			}
+		}
+	}
+
+	public String text()
+	{
+		return new String(text, 0, length);
+	}
+
+	public boolean hasError()
+	{
+		for (Unit unit : units)
+		{
+			if (!unit.errors.isEmpty())
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String errorReport()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Unit unit : units)
+		{
+			for (ParseError error : unit.errors)
+			{
+				error.appendTo(sb);
+			}
+		}
+		return sb.toString();
+	}
+
+	// Replaces the removed chars at offset with inserted.
+	public Change edit(int offset, int removed, String inserted)
+	{
+		if (offset < 0 || removed < 0 || offset + removed > length)
+		{
+			throw new IndexOutOfBoundsException("Edit " + offset + "+" + removed + " outside of " + length + " chars.");
+		}
+
+		int chars = inserted.length() - removed;
+		int lines = lineBreaks(inserted.toCharArray(), 0, inserted.length()) - lineBreaks(text, offset, removed);
+		replace(offset, removed, inserted);
+
+		int k = region(offset);
+		boolean last = k == units.size() - 1;
+		if (k < 0 || (!last && offset + removed > units.get(k).endOffset))
+		{
+			return fullReparse();
+		}
+
+		Unit old = units.get(k);
+		for (int j = k + 1; j < units.size(); j++)
+		{
+			units.get(j).shift(chars, lines);
+		}
+
+		undeclare(k, old);
+		List<Unit> parsed = parseRegion(k, old.startOffset, last ? length : old.endOffset + chars, old.startLine,
+				old.startColumn);
+		if (!last && (parsed.size() != 1 || parsed.get(0).failed))
+		{
+			return fullReparse();
+		}
+
+		List<String> added = new ArrayList<String>();
+		List<String> gone = new ArrayList<String>();
+		compare(old.errors, parsed, added, gone);
+		if (last)
+		{
+			units.subList(k, units.size()).clear();
+			units.addAll(parsed);
+			return new Change(false, parsed.size(), added, gone);
+		}
+
+		Unit unit = parsed.get(0);
+		units.set(k, unit);
+		int reparsed = 1;
+
+		int[] changed = new int[2];
+		int count = 0;
+		if (old.nameId != unit.nameId)
+		{
+			if (old.nameId >= 0)
+			{
+				changed[count++] = old.nameId;
+			}
+			if (unit.nameId >= 0)
+			{
+				changed[count++] = unit.nameId;
+			}
+		}
+
+		// Later units are parsed again when their declaration or references
+		// involve a changed name, or when the unit before them now ends at a
+		// different column, which moves their first line.
+		for (int j = k + 1; j < units.size(); j++)
+		{
+			Unit previous = units.get(j - 1);
+			Unit next = units.get(j);
+			boolean moved = next.startOffset != previous.endOffset || next.startLine != previous.endLine
+					|| next.startColumn != previous.endColumn;
+			if (!moved && !next.dependsOn(changed, count))
+			{
+				continue;
+			}
+
+			undeclare(j, next);
+			boolean lastRegion = j == units.size() - 1;
+			List<Unit> again = parseRegion(j, previous.endOffset, lastRegion ? length : next.endOffset,
+					previous.endLine, previous.endColumn);
+			if (again.size() != 1 || (!lastRegion && again.get(0).failed))
+			{
+				return fullReparse();
+			}
+			compare(next.errors, again, added, gone);
+			units.set(j, again.get(0));
+			reparsed++;
+		}
+		return new Change(false, reparsed, added, gone);
+	}
+
+	private Change fullReparse()
+	{
+		List<ParseError> before = new ArrayList<ParseError>();
+		for (Unit unit : units)
+		{
+			before.addAll(unit.errors);
+		}
+		reparse();
+
+		List<String> added = new ArrayList<String>();
+		List<String> gone = new ArrayList<String>();
+		compare(before, units, added, gone);
+		return new Change(true, units.size(), added, gone);
+	}
+
+	private void reparse()
+	{
+		declarers = new int[names.size()][];
+		declared = new Symbol[names.size()][];
+		declarerCounts = new int[names.size()];
+		for (int i = 0; i < builtIns.length; i++)
+		{
+			declare(i, -1 - i, builtIns[i]);
+		}
+		units = new ArrayList<Unit>();
+		units.addAll(parseRegion(0, 0, length, 1, 0));
+	}
+
+	// Lexes and parses text[offset, end) with the scanner resumed at the given
+	// position, one unit per declaration, numbering the units from index.
+	private List<Unit> parseRegion(int index, int offset, int end, int line, int column)
+	{
+		TokenBuffer tokens;
+		try
+		{
+			tokens = TokenBuffer.lex(text, offset, end - offset, names, line, column);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+
+		List<Unit> parsed = new ArrayList<Unit>();
+		if (tokens.kind(0) == Token.Kind.EOF)
+		{
+			return parsed;
+		}
+
+		if (parser == null)
+		{
+			parser = new Parser(tokens, scopes, false);
+		}
+		else
+		{
+			parser.reset(tokens);
+		}
+		parser.setErrorLimit(Integer.MAX_VALUE);
+		do
+		{
+			Unit unit = new Unit();
+			unit.startOffset = offset;
+			unit.startLine = line;
+			unit.startColumn = column;
+
+			scopes.begin(index + parsed.size(), unit);
+			int count = parser.errors().size();
+			unit.failed = !parser.parseUnit();
+			unit.errors = new ArrayList<ParseError>(parser.errors().subList(count, parser.errors().size()));
+			unit.sortReferences();
+			parsed.add(unit);
+
+			if (unit.failed)
+			{
+				unit.endOffset = end;
+				break;
+			}
+
+			int lastToken = tokens.position() - 1;
+			unit.endOffset = tokens.offset(lastToken) + tokens.length(lastToken);
+			unit.endLine = tokens.lineNumber(lastToken);
+			unit.endColumn = tokens.charPosition(lastToken) + tokens.length(lastToken) - 1;
+
+			offset = unit.endOffset;
+			line = unit.endLine;
+			column = unit.endColumn;
+		} while (parser.current() != Token.Kind.EOF);
+		return parsed;
+	}
+
+	// the region holding offset, -1 before the first one
+	private int region(int offset)
+	{
+		int low = 0;
+		int high = units.size() - 1;
+		int found = -1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (units.get(middle).startOffset <= offset)
+			{
+				found = middle;
+				low = middle + 1;
+			}
+			else
+			{
+				high = middle - 1;
+			}
+		}
+		return found;
+	}
+
+	private void replace(int offset, int removed, String inserted)
+	{
+		int newLength = length - removed + inserted.length();
+		if (newLength > text.length)
+		{
+			text = Arrays.copyOf(text, Math.max(newLength, text.length * 2));
+		}
+		System.arraycopy(text, offset + removed, text, offset + inserted.length(), length - offset - removed);
+		inserted.getChars(0, inserted.length(), text, offset);
+		length = newLength;
+	}
+
+	// Both CR and LF start a new line for the scanner.
+	private static int lineBreaks(char[] chars, int offset, int count)
+	{
+		int breaks = 0;
+		for (int i = offset; i < offset + count; i++)
+		{
+			if (chars[i] == '\n' || chars[i] == '\r')
+			{
+				breaks++;
+			}
+		}
+		return breaks;
+	}
+
+	private static void compare(List<ParseError> before, List<Unit> after, List<String> added, List<String> removed)
+	{
+		List<String> old = new ArrayList<String>();
+		for (ParseError error : before)
+		{
+			old.add(error.message());
+		}
+		for (Unit unit : after)
+		{
+			for (ParseError error : unit.errors)
+			{
+				if (!old.remove(error.message()))
+				{
+					added.add(error.message());
+				}
+			}
+		}
+		removed.addAll(old);
+	}
+
+	private Symbol global(int id, int index)
+	{
+		if (id >= declarerCounts.length || declarerCounts[id] == 0 || declarers[id][0] > index)
+		{
+			return null;
+		}
+		return declared[id][0];
+	}
+
+	private void declare(int id, int index, Symbol symbol)
+	{
+		if (id >= declarerCounts.length)
+		{
+			int capacity = Math.max(names.size(), declarerCounts.length * 2);
+			declarers = Arrays.copyOf(declarers, capacity);
+			declared = Arrays.copyOf(declared, capacity);
+			declarerCounts = Arrays.copyOf(declarerCounts, capacity);
+		}
+		if (declarers[id] == null)
+		{
+			declarers[id] = new int[2];
+			declared[id] = new Symbol[2];
+		}
+		else if (declarerCounts[id] == declarers[id].length)
+		{
+			declarers[id] = Arrays.copyOf(declarers[id], declarerCounts[id] * 2);
+			declared[id] = Arrays.copyOf(declared[id], declarerCounts[id] * 2);
+		}
+
+		int i = declarerCounts[id]++;
+		while (i > 0 && declarers[id][i - 1] > index)
+		{
+			declarers[id][i] = declarers[id][i - 1];
+			declared[id][i] = declared[id][i - 1];
+			i--;
+		}
+		declarers[id][i] = index;
+		declared[id][i] = symbol;
+	}
+
+	private void undeclare(int index, Unit unit)
+	{
+		if (unit.symbol == null)
+		{
+			return;
+		}
+		int id = unit.nameId;
+		int count = declarerCounts[id];
+		for (int i = 0; i < count; i++)
+		{
+			if (declarers[id][i] == index)
+			{
+				System.arraycopy(declarers[id], i + 1, declarers[id], i, count - i - 1);
+				System.arraycopy(declared[id], i + 1, declared[id], i, count - i - 1);
+				declared[id][--declarerCounts[id]] = null;
+				return;
+			}
+		}
+	}
+
+	// The scopes seen while parsing one unit: its own function scopes, over a
+	// top level holding the built-ins and the units before it.
+	private class Scopes implements ScopeStack
+	{
+		private int index;
+		private Unit unit;
+		private SymbolTable local;
+
+		private void begin(int index, Unit unit)
+		{
+			this.index = index;
+			this.unit = unit;
+			this.local = null;
+		}
+
+		public NameTable getNames()
+		{
+			return names;
+		}
+
+		public int getDepth()
+		{
+			return local == null ? 0 : local.getDepth();
+		}
+
+		public void enterScope()
+		{
+			SymbolTable table = new SymbolTable(names);
+			table.setDepth(getDepth() + 1);
+			table.setParent(local);
+			local = table;
+		}
+
+		public void exitScope()
+		{
+			local = local.getParent();
+		}
+
+		public Symbol find(int id)
+		{
+			if (local != null)
+			{
+				Symbol symbol = local.find(id);
+				if (symbol != null)
+				{
+					return symbol;
+				}
+			}
+
+			unit.reference(id);
+			return global(id, index);
+		}
+
+		public Symbol lookup(int id) throws SymbolNotFoundError
+		{
+			Symbol symbol = find(id);
+			if (symbol == null)
+			{
+				throw new SymbolNotFoundError(names.name(id));
+			}
+			return symbol;
+		}
+
+		public Symbol tryInsert(int id)
+		{
+			if (local != null)
+			{
+				return local.tryInsert(id);
+			}
+
+			unit.nameId = id;
+			if (global(id, index) != null)
+			{
+				return null;
+			}
+			unit.symbol = new Symbol(names.name(id));
+			declare(id, index, unit.symbol);
+			return unit.symbol;
+		}
+
+		// never called, as the document declares the built-ins itself
+		public Symbol tryInsertBuiltIn(int id)
+		{
+			return tryInsert(id);
+		}
+
+		public Symbol insert(int id) throws RedeclarationError
+		{
+			Symbol symbol = tryInsert(id);
+			if (symbol == null)
+			{
+				throw new RedeclarationError(local != null ? local.declared(id) : global(id, index));
+			}
+			return symbol;
+		}
+
+		public ScopeSnapshot snapshot()
+		{
+			return new Snapshot(index, unit.symbol, local == null ? null : local.snapshot());
+		}
+
+		// Called as the parser is reset for the next region. The function
+		// scopes go, but the unit parsed last is kept, and begin() starts the
+		// next one. The regions are all lexed with the document's names.
+		public void reset(NameTable names)
+		{
+			assert (names == IncrementalParser.this.names);
+			local = null;
+			unit = null;
+		}
+	}
+
+	// Renders the top level as it currently stands before the unit, so the
+	// report follows later edits to earlier declarations.
+	private class Snapshot implements ScopeSnapshot
+	{
+		private final int index;
+		private final Symbol self;
+		private final ScopeSnapshot local;
+
+		private Snapshot(int index, Symbol self, ScopeSnapshot local)
+		{
+			this.index = index;
+			this.self = self;
+			this.local = local;
+		}
+
+		public void appendTo(StringBuilder sb)
+		{
+			for (Symbol symbol : builtIns)
+			{
+				sb.append(symbol).append('\n');
+			}
+			for (int i = 0; i < index; i++)
+			{
+				Symbol symbol = units.get(i).symbol;
+				if (symbol != null)
+				{
+					sb.append(symbol).append('\n');
+				}
+			}
+			if (self != null)
+			{
+				sb.append(self).append('\n');
+			}
+			if (local != null)
+			{
+				local.appendTo(sb);
+			}
+		}
+	}
+}
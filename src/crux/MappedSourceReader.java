@@ -0,0 +1,142 @@
+package crux;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+class MappedSourceReader extends Reader
+{
+	private ByteBuffer bytes;
+	private Charset charset;
+	// null while the ASCII fast path is in use
+	private CharsetDecoder decoder;
+	private boolean flushed;
+	// the low surrogate of a pair a one-char read split, or -1
+	private int pending = -1;
+
+	public MappedSourceReader(Path path) throws IOException
+	{
+		this(path, Charset.defaultCharset());
+	}
+
+	public MappedSourceReader(Path path, Charset charset) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+			{
+				throw new IOException("Source file too large to map: " + path);
+			}
+			bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+
+		this.charset = charset;
+		if (!isAsciiCompatible(charset))
+		{
+			decoder = newDecoder();
+		}
+	}
+
+	private static boolean isAsciiCompatible(Charset charset)
+	{
+		return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+				|| charset.equals(StandardCharsets.ISO_8859_1);
+	}
+
+	private CharsetDecoder newDecoder()
+	{
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException
+	{
+		if (bytes == null)
+		{
+			throw new IOException("Stream closed");
+		}
+		Objects.checkFromIndexSize(off, len, cbuf.length);
+		// -1 would claim the end of the stream
+		if (len == 0)
+		{
+			return 0;
+		}
+
+		if (decoder == null)
+		{
+			int count = 0;
+			int end = Math.min(len, bytes.remaining());
+			int position = bytes.position();
+			while (count < end)
+			{
+				byte b = bytes.get(position + count);
+				if (b < 0)
+				{
+					// first non-ASCII byte, decode the rest of the file
+					decoder = newDecoder();
+					break;
+				}
+				cbuf[off + count++] = (char) b;
+			}
+			bytes.position(position + count);
+
+			if (count > 0 || decoder == null)
+			{
+				return count > 0 ? count : -1;
+			}
+		}
+
+		if (pending >= 0)
+		{
+			cbuf[off] = (char) pending;
+			pending = -1;
+			return 1;
+		}
+
+		// A character outside the BMP decodes to a surrogate pair, which does
+		// not fit a single char, so that is decoded through a buffer of two.
+		CharBuffer out = len > 1 ? CharBuffer.wrap(cbuf, off, len) : CharBuffer.allocate(2);
+		int start = out.position();
+		while (out.position() == start && !flushed)
+		{
+			decoder.decode(bytes, out, true);
+			if (!bytes.hasRemaining())
+			{
+				flushed = decoder.flush(out).isUnderflow();
+			}
+		}
+		int count = out.position() - start;
+		if (count == 0)
+		{
+			return -1;
+		}
+		if (len == 1)
+		{
+			cbuf[off] = out.get(0);
+			if (count == 2)
+			{
+				pending = out.get(1);
+			}
+			return 1;
+		}
+		return count;
+	}
+
+	@Override
+	public void close()
+	{
+		bytes = null;
+	}
+}
@@ -0,0 +1,254 @@
+package crux;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and histograms for the scanner, parser and symbol tables, kept for
+// the whole JVM. They are only updated when it runs with -Dcrux.metrics=true:
+// every update site checks ENABLED, a static final the JIT folds away when
+// it is false. Once enabled they are also published over JMX.
+public class Metrics implements MetricsMXBean
+{
+	public static final String PROPERTY = "crux.metrics";
+	public static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+	public static final String OBJECT_NAME = "crux:type=Metrics";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final LongAdder tokens = new LongAdder();
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder inserts = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	// scopes walked past per lookup
+	private final Histogram hops = new Histogram();
+	// phase durations in nanoseconds
+	private final Histogram lexTimes = new Histogram();
+	private final Histogram parseTimes = new Histogram();
+
+	static
+	{
+		if (ENABLED)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e)
+			{
+				// another copy of the classes registered first
+			}
+		}
+	}
+
+	// Counts values in power of two buckets, bucket i holding those below 2^i
+	// and from 2^(i - 1) up, so percentiles are upper bounds within a factor
+	// of two.
+	public static class Histogram
+	{
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+
+		void record(long value)
+		{
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)));
+			count.increment();
+			sum.add(value);
+		}
+
+		public long count()
+		{
+			return count.sum();
+		}
+
+		public long sum()
+		{
+			return sum.sum();
+		}
+
+		// the least bucket bound that at least the given fraction of values is under
+		public long percentile(double fraction)
+		{
+			long wanted = (long) Math.ceil(count() * fraction);
+			long seen = 0;
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				seen += buckets.get(i);
+				if (seen >= wanted && seen > 0)
+				{
+					return i == 63 ? Long.MAX_VALUE : 1L << i;
+				}
+			}
+			return 0;
+		}
+
+		private void reset()
+		{
+			for (int i = 0; i < buckets.length(); i++)
+			{
+				buckets.set(i, 0);
+			}
+			count.reset();
+			sum.reset();
+		}
+	}
+
+	public static Metrics get()
+	{
+		return INSTANCE;
+	}
+
+	static void scanned(int count)
+	{
+		INSTANCE.tokens.add(count);
+	}
+
+	static void lookup(int scopes, boolean found)
+	{
+		INSTANCE.lookups.increment();
+		INSTANCE.hops.record(scopes);
+		if (!found)
+		{
+			INSTANCE.misses.increment();
+		}
+	}
+
+	static void inserted()
+	{
+		INSTANCE.inserts.increment();
+	}
+
+	static void error()
+	{
+		INSTANCE.errors.increment();
+	}
+
+	static void lexed(long nanos)
+	{
+		INSTANCE.lexTimes.record(nanos);
+	}
+
+	static void parsed(long nanos)
+	{
+		INSTANCE.parseTimes.record(nanos);
+	}
+
+	public long getTokens()
+	{
+		return tokens.sum();
+	}
+
+	public long getLookups()
+	{
+		return lookups.sum();
+	}
+
+	public long getLookupMisses()
+	{
+		return misses.sum();
+	}
+
+	public long getScopeHops()
+	{
+		return hops.sum();
+	}
+
+	public Histogram scopeHops()
+	{
+		return hops;
+	}
+
+	public long getInserts()
+	{
+		return inserts.sum();
+	}
+
+	public long getErrors()
+	{
+		return errors.sum();
+	}
+
+	public long getLexes()
+	{
+		return lexTimes.count();
+	}
+
+	public double getLexMillis()
+	{
+		return lexTimes.sum() / 1e6;
+	}
+
+	public Histogram lexTimes()
+	{
+		return lexTimes;
+	}
+
+	public long getParses()
+	{
+		return parseTimes.count();
+	}
+
+	public double getParseMillis()
+	{
+		return parseTimes.sum() / 1e6;
+	}
+
+	public double getParseMillisMedian()
+	{
+		return parseTimes.percentile(0.5) / 1e6;
+	}
+
+	public double getParseMillis99()
+	{
+		return parseTimes.percentile(0.99) / 1e6;
+	}
+
+	public Histogram parseTimes()
+	{
+		return parseTimes;
+	}
+
+	public void reset()
+	{
+		tokens.reset();
+		lookups.reset();
+		misses.reset();
+		inserts.reset();
+		errors.reset();
+		hops.reset();
+		lexTimes.reset();
+		parseTimes.reset();
+	}
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("tokens: ").append(getTokens()).append('\n');
+		sb.append("lookups: ").append(getLookups()).append(", ").append(getLookupMisses()).append(" missed, ")
+				.append(getScopeHops()).append(" scope hops, 99% of lookups under ").append(hops.percentile(0.99)).append('\n');
+		sb.append("inserts: ").append(getInserts()).append('\n');
+		sb.append("errors: ").append(getErrors()).append('\n');
+		appendPhase(sb, "lex", lexTimes);
+		appendPhase(sb, "parse", parseTimes);
+		return sb.toString();
+	}
+
+	private static void appendPhase(StringBuilder sb, String phase, Histogram times)
+	{
+		sb.append(phase).append(": ").append(times.count()).append(" run(s), ")
+				.append(String.format("%.3f", times.sum() / 1e6)).append(" ms");
+		if (times.count() > 0)
+		{
+			sb.append(", median under ").append(String.format("%.3f", times.percentile(0.5) / 1e6))
+					.append(" ms, 99% under ").append(String.format("%.3f", times.percentile(0.99) / 1e6))
+					.append(" ms");
+		}
+		sb.append('\n');
+	}
+}
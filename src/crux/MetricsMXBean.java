@@ -0,0 +1,31 @@
+package crux;
+
+// The figures of Metrics as published over JMX.
+public interface MetricsMXBean
+{
+	public long getTokens();
+
+	public long getLookups();
+
+	public long getLookupMisses();
+
+	public long getScopeHops();
+
+	public long getInserts();
+
+	public long getErrors();
+
+	public long getLexes();
+
+	public double getLexMillis();
+
+	public long getParses();
+
+	public double getParseMillis();
+
+	public double getParseMillisMedian();
+
+	public double getParseMillis99();
+
+	public void reset();
+}
@@ -0,0 +1,200 @@
+package crux;
+
+import java.util.Arrays;
+
+public class NameTable
+{
+	private static final int INITIAL_CAPACITY = 32;
+
+	// open-addressed slots holding id + 1, 0 marks an empty slot
+	private int[] slots;
+	private int[] hashes;
+	private String[] names;
+	private int size;
+
+	public NameTable()
+	{
+		slots = new int[INITIAL_CAPACITY * 2];
+		hashes = new int[INITIAL_CAPACITY];
+		names = new String[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	// A table starting out with the names of seed, under the same ids.
+	NameTable(NameTable seed)
+	{
+		slots = seed.slots.clone();
+		hashes = seed.hashes.clone();
+		names = seed.names.clone();
+		size = seed.size;
+	}
+
+	public int intern(String name)
+	{
+		int hash = name.hashCode();
+		int slot = probe(name, hash);
+		if (slots[slot] != 0)
+		{
+			return slots[slot] - 1;
+		}
+
+		if (size == names.length)
+		{
+			grow();
+			slot = probe(name, hash);
+		}
+
+		int id = size++;
+		hashes[id] = hash;
+		names[id] = name;
+		slots[slot] = id + 1;
+		return id;
+	}
+
+	// Same as intern(new String(buffer, offset, length)) but only builds the
+	// String the first time the name is seen.
+	public int intern(char[] buffer, int offset, int length)
+	{
+		int hash = 0;
+		for (int i = offset; i < offset + length; i++)
+		{
+			hash = 31 * hash + buffer[i];
+		}
+
+		int slot = probe(buffer, offset, length, hash);
+		if (slots[slot] != 0)
+		{
+			return slots[slot] - 1;
+		}
+
+		if (size == names.length)
+		{
+			grow();
+			slot = probe(buffer, offset, length, hash);
+		}
+
+		int id = size++;
+		hashes[id] = hash;
+		names[id] = new String(buffer, offset, length);
+		slots[slot] = id + 1;
+		return id;
+	}
+
+	public int find(String name)
+	{
+		return slots[probe(name, name.hashCode())] - 1;
+	}
+
+	public String name(int id)
+	{
+		return names[id];
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private int probe(String name, int hash)
+	{
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (slots[slot] != 0)
+		{
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && names[id].equals(name))
+			{
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int probe(char[] buffer, int offset, int length, int hash)
+	{
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (slots[slot] != 0)
+		{
+			int id = slots[slot] - 1;
+			if (hashes[id] == hash && matches(names[id], buffer, offset, length))
+			{
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static boolean matches(String name, char[] buffer, int offset, int length)
+	{
+		if (name.length() != length)
+		{
+			return false;
+		}
+		for (int i = 0; i < length; i++)
+		{
+			if (name.charAt(i) != buffer[offset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Drops every name but those of seed, which get their ids back, and
+	// keeps the arrays for the names to come.
+	void reset(NameTable seed)
+	{
+		if (seed.size > names.length)
+		{
+			slots = seed.slots.clone();
+			hashes = seed.hashes.clone();
+			names = seed.names.clone();
+			size = seed.size;
+			return;
+		}
+
+		Arrays.fill(names, seed.size, Math.max(size, seed.size), null);
+		System.arraycopy(seed.names, 0, names, 0, seed.size);
+		System.arraycopy(seed.hashes, 0, hashes, 0, seed.size);
+		size = seed.size;
+		Arrays.fill(slots, 0);
+		rehash();
+	}
+
+	private void grow()
+	{
+		int capacity = names.length * 2;
+		String[] newNames = new String[capacity];
+		int[] newHashes = new int[capacity];
+		System.arraycopy(names, 0, newNames, 0, size);
+		System.arraycopy(hashes, 0, newHashes, 0, size);
+		names = newNames;
+		hashes = newHashes;
+
+		slots = new int[capacity * 2];
+		rehash();
+	}
+
+	private void rehash()
+	{
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++)
+		{
+			int slot = mix(hashes[id]) & mask;
+			while (slots[slot] != 0)
+			{
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	static int mix(int hash)
+	{
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
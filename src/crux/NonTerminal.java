@@ -1,213 +1,94 @@
 package crux;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
 
+import crux.Token.Kind;
+
+// FIRST sets are bitmasks over Token.Kind ordinals, checked against the
+// grammar comments in Parser by GrammarCheck.
 public enum NonTerminal
 {
-	DESIGNATOR(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.IDENTIFIER);
-		}
-	}), TYPE(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.IDENTIFIER);
-		}
-	}), LITERAL(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.INTEGER);
-			add(Token.Kind.FLOAT);
-			add(Token.Kind.TRUE);
-			add(Token.Kind.FALSE);
-		}
-	}), CALL_EXPRESSION(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.CALL);
-		}
-	}), OP0(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.GREATER_EQUAL);
-			add(Token.Kind.LESSER_EQUAL);
-			add(Token.Kind.NOT_EQUAL);
-			add(Token.Kind.EQUAL);
-			add(Token.Kind.GREATER_THAN);
-			add(Token.Kind.LESS_THAN);
-			add(Token.Kind.IDENTIFIER);
-		}
-	}), OP1(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.ADD);
-			add(Token.Kind.SUB);
-			add(Token.Kind.OR);
-		}
-	}), OP2(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.MUL);
-			add(Token.Kind.DIV);
-			add(Token.Kind.AND);
-		}
-	}), EXPRESSION3(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.NOT);
-			add(Token.Kind.OPEN_PAREN);
-			addAll(DESIGNATOR.firstSet);
-			addAll(CALL_EXPRESSION.firstSet);
-			addAll(LITERAL.firstSet);
-		}
-	}), EXPRESSION2(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(EXPRESSION3.firstSet);
-		}
-	}), EXPRESSION1(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(EXPRESSION2.firstSet);
-		}
-	}), EXPRESSION0(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(EXPRESSION1.firstSet);
-		}
-	}), EXPRESSION_LIST(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(EXPRESSION0.firstSet);
-		}
-	}), PARAMETER(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.IDENTIFIER);
-		}
-	}), PARAMETER_LIST(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(PARAMETER.firstSet);
-		}
-	}), VARIABLE_DECLARATION(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.VAR);
-		}
-	}), ARRAY_DECLARATION(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.ARRAY);
-		}
-	}), FUNCTION_DEFINITION(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.FUNC);
-		}
-	}), DECLARATION(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(VARIABLE_DECLARATION.firstSet);
-			addAll(ARRAY_DECLARATION.firstSet);
-			addAll(FUNCTION_DEFINITION.firstSet);
-		}
-	}), DECLARATION_LIST(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(DECLARATION.firstSet);
-		}
-	}), ASSIGNMENT_STATEMENT(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.LET);
-		}
-	}), CALL_STATEMENT(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			addAll(CALL_EXPRESSION.firstSet);
-		}
-	}), IF_STATEMENT(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.IF);
-		}
-	}), WHILE_STATEMENT(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.WHILE);
-		}
-	}), RETURN_STATEMENT(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.RETURN);
-		}
-	}), STATEMENT_BLOCK(new HashSet<Token.Kind>()
-	{
-		private static final long serialVersionUID = 1L;
-		{
-			add(Token.Kind.OPEN_BRACE);
-		}
-	}), STATEMENT(new HashSet<Token.Kind>()
+	DESIGNATOR(of(Kind.IDENTIFIER)),
+	TYPE(of(Kind.IDENTIFIER)),
+	LITERAL(of(Kind.INTEGER, Kind.FLOAT, Kind.TRUE, Kind.FALSE)),
+	CALL_EXPRESSION(of(Kind.CALL)),
+	OP0(of(Kind.GREATER_EQUAL, Kind.LESSER_EQUAL, Kind.NOT_EQUAL, Kind.EQUAL, Kind.GREATER_THAN, Kind.LESS_THAN,
+			Kind.IDENTIFIER)),
+	OP1(of(Kind.ADD, Kind.SUB, Kind.OR)),
+	OP2(of(Kind.MUL, Kind.DIV, Kind.AND)),
+	EXPRESSION3(of(Kind.NOT, Kind.OPEN_PAREN) | DESIGNATOR.firstSet | CALL_EXPRESSION.firstSet | LITERAL.firstSet),
+	EXPRESSION2(EXPRESSION3.firstSet),
+	EXPRESSION1(EXPRESSION2.firstSet),
+	EXPRESSION0(EXPRESSION1.firstSet),
+	EXPRESSION_LIST(EXPRESSION0.firstSet),
+	PARAMETER(of(Kind.IDENTIFIER)),
+	PARAMETER_LIST(PARAMETER.firstSet),
+	VARIABLE_DECLARATION(of(Kind.VAR)),
+	ARRAY_DECLARATION(of(Kind.ARRAY)),
+	FUNCTION_DEFINITION(of(Kind.FUNC)),
+	DECLARATION(VARIABLE_DECLARATION.firstSet | ARRAY_DECLARATION.firstSet | FUNCTION_DEFINITION.firstSet),
+	DECLARATION_LIST(DECLARATION.firstSet),
+	ASSIGNMENT_STATEMENT(of(Kind.LET)),
+	CALL_STATEMENT(CALL_EXPRESSION.firstSet),
+	IF_STATEMENT(of(Kind.IF)),
+	WHILE_STATEMENT(of(Kind.WHILE)),
+	RETURN_STATEMENT(of(Kind.RETURN)),
+	STATEMENT_BLOCK(of(Kind.OPEN_BRACE)),
+	STATEMENT(VARIABLE_DECLARATION.firstSet | CALL_STATEMENT.firstSet | ASSIGNMENT_STATEMENT.firstSet
+			| IF_STATEMENT.firstSet | WHILE_STATEMENT.firstSet | RETURN_STATEMENT.firstSet),
+	STATEMENT_LIST(STATEMENT.firstSet),
+	PROGRAM(DECLARATION_LIST.firstSet | of(Kind.EOF));
+
+	private final long firstSet;
+	private final Set<Kind> firstSetView;
+
+	static
 	{
-		private static final long serialVersionUID = 1L;
+		if (Kind.values().length > Long.SIZE)
 		{
-			addAll(VARIABLE_DECLARATION.firstSet);
-			addAll(CALL_STATEMENT.firstSet);
-			addAll(ASSIGNMENT_STATEMENT.firstSet);
-			addAll(IF_STATEMENT.firstSet);
-			addAll(WHILE_STATEMENT.firstSet);
-			addAll(RETURN_STATEMENT.firstSet);
+			throw new IllegalStateException("Token.Kind no longer fits a long FIRST set mask");
 		}
-	}), STATEMENT_LIST(new HashSet<Token.Kind>()
+	}
+
+	NonTerminal(long firstSet)
 	{
-		private static final long serialVersionUID = 1L;
+		this.firstSet = firstSet;
+
+		EnumSet<Kind> kinds = EnumSet.noneOf(Kind.class);
+		for (Kind kind : Kind.values())
 		{
-			addAll(STATEMENT.firstSet);
+			if (contains(kind))
+			{
+				kinds.add(kind);
+			}
 		}
-	}), PROGRAM(new HashSet<Token.Kind>()
+		this.firstSetView = Collections.unmodifiableSet(kinds);
+	}
+
+	static long of(Kind... kinds)
 	{
-		private static final long serialVersionUID = 1L;
+		long mask = 0;
+		for (Kind kind : kinds)
 		{
-			addAll(DECLARATION_LIST.firstSet);
+			mask |= 1L << kind.ordinal();
 		}
-	});
-
-	public final HashSet<Token.Kind> firstSet = new HashSet<Token.Kind>();
+		return mask;
+	}
 
-	NonTerminal(HashSet<Token.Kind> tokenSet)
+	public final boolean contains(Kind kind)
 	{
-		firstSet.addAll(tokenSet);
+		return (firstSet & (1L << kind.ordinal())) != 0;
 	}
 
-	public final Set<Token.Kind> firstSet()
+	public final long firstSetMask()
 	{
 		return firstSet;
 	}
+
+	public final Set<Kind> firstSet()
+	{
+		return firstSetView;
+	}
 }
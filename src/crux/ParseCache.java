@@ -0,0 +1,285 @@
+package crux;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// An on-disk cache of parse outcomes. Entries are keyed by the SHA-256 of
+// the cache format version, the compiler's classes, the parse options and
+// the source bytes, and live in one small binary file each. A damaged entry
+// reads as a miss. Writers go through a temporary file
+// and an atomic rename, so concurrent compilers never see a partial entry.
+public class ParseCache
+{
+	// The layout of an entry file: bump it when put() writes something else.
+	// Changes to the parser's output need no bump, as BUILD covers them.
+	public static final String VERSION = "crux-parse-2";
+
+	// Digest of the class files of the compiler itself, so that a build that
+	// may parse differently never reads the entries of another. Empty when
+	// they cannot be read, leaving only VERSION to tell builds apart.
+	private static final String BUILD = buildDigest();
+
+	private static final int MAGIC = 0x43525843;
+
+	private final Path directory;
+
+	public ParseCache(Path directory) throws IOException
+	{
+		this.directory = Files.createDirectories(directory);
+	}
+
+	public static class Entry
+	{
+		private final boolean hasError;
+		private final String errorReport;
+		private final List<String> globals;
+
+		public Entry(boolean hasError, String errorReport, List<String> globals)
+		{
+			this.hasError = hasError;
+			this.errorReport = errorReport;
+			this.globals = Collections.unmodifiableList(new ArrayList<String>(globals));
+		}
+
+		public boolean hasError()
+		{
+			return hasError;
+		}
+
+		public String errorReport()
+		{
+			return errorReport;
+		}
+
+		// names declared in the global scope, in declaration order
+		public List<String> globals()
+		{
+			return globals;
+		}
+	}
+
+	public String key(Path source, String options) throws IOException
+	{
+		MessageDigest digest = sha256();
+		digest.update(VERSION.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(BUILD.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(options.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ))
+		{
+			digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+
+		return hex(digest.digest());
+	}
+
+	private static String hex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (byte b : bytes)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	// null when there is no entry, or it is damaged or from another version
+	public Entry get(String key)
+	{
+		// read whole, so that no length in it can ask for more than is there
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path(key)))))
+		{
+			if (in.readInt() != MAGIC || !in.readUTF().equals(VERSION) || !in.readUTF().equals(key))
+			{
+				return null;
+			}
+			boolean hasError = in.readBoolean();
+			String errorReport = readString(in);
+			int count = in.readInt();
+			// every global takes at least its length
+			if (count < 0 || count > in.available() / 4)
+			{
+				return null;
+			}
+			List<String> globals = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++)
+			{
+				globals.add(readString(in));
+			}
+			return new Entry(hasError, errorReport, globals);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	public void put(String key, Entry entry) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeUTF(VERSION);
+		out.writeUTF(key);
+		out.writeBoolean(entry.hasError());
+		writeString(out, entry.errorReport());
+		out.writeInt(entry.globals().size());
+		for (String global : entry.globals())
+		{
+			writeString(out, global);
+		}
+		out.flush();
+
+		Path target = path(key);
+		Files.createDirectories(target.getParent());
+		Path temporary = Files.createTempFile(target.getParent(), key, ".tmp");
+		try
+		{
+			try (OutputStream stream = Files.newOutputStream(temporary))
+			{
+				bytes.writeTo(stream);
+			}
+			try
+			{
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	// entries are spread over subdirectories named by the first two digits
+	private Path path(String key)
+	{
+		return directory.resolve(key.substring(0, 2)).resolve(key + ".bin");
+	}
+
+	// writeUTF is limited to 64K, which a report can exceed
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	// in reads from memory, so available() is what is left of the entry
+	private static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || length > in.available())
+		{
+			throw new IOException("Corrupt cache entry.");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	// Hashes the name and bytes of every class file under crux/, in name
+	// order, wherever the classes were loaded from: a jar or a directory.
+	private static String buildDigest()
+	{
+		MessageDigest digest = sha256();
+		try
+		{
+			CodeSource source = ParseCache.class.getProtectionDomain().getCodeSource();
+			if (source == null)
+			{
+				return "";
+			}
+			Path location = Paths.get(source.getLocation().toURI());
+			if (Files.isDirectory(location))
+			{
+				List<Path> files;
+				try (Stream<Path> walk = Files.walk(location.resolve("crux")))
+				{
+					files = walk.filter(p -> p.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+				}
+				for (Path file : files)
+				{
+					update(digest, location.relativize(file).toString().replace('\\', '/'), Files.readAllBytes(file));
+				}
+			}
+			else
+			{
+				try (JarFile jar = new JarFile(location.toFile()))
+				{
+					List<String> names = new ArrayList<String>();
+					for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();)
+					{
+						String name = entries.nextElement().getName();
+						if (name.startsWith("crux/") && name.endsWith(".class"))
+						{
+							names.add(name);
+						}
+					}
+					Collections.sort(names);
+					for (String name : names)
+					{
+						try (InputStream in = jar.getInputStream(jar.getEntry(name)))
+						{
+							update(digest, name, in.readAllBytes());
+						}
+					}
+				}
+			}
+		}
+		catch (IOException | URISyntaxException | SecurityException e)
+		{
+			return "";
+		}
+		return hex(digest.digest());
+	}
+
+	private static void update(MessageDigest digest, String name, byte[] bytes)
+	{
+		digest.update(name.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(bytes);
+	}
+
+	private static MessageDigest sha256()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
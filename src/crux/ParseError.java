@@ -0,0 +1,107 @@
+package crux;
+
+// One entry of a parser error report. The message and the scope listing are
+// only formatted when the report is rendered.
+public class ParseError
+{
+	public enum Kind
+	{
+		EXPECTED_TOKEN, EXPECTED_FROM, INCOMPLETE, RESOLVE, DECLARE
+	}
+
+	private final Kind kind;
+	private final int lineNumber;
+	private final int charPosition;
+	private final String name;
+	private final Token.Kind found;
+	private final ScopeSnapshot scope;
+
+	ParseError(Kind kind, int lineNumber, int charPosition, String name, Token.Kind found, ScopeSnapshot scope)
+	{
+		this.kind = kind;
+		this.lineNumber = lineNumber;
+		this.charPosition = charPosition;
+		this.name = name;
+		this.found = found;
+		this.scope = scope;
+	}
+
+	public Kind kind()
+	{
+		return kind;
+	}
+
+	public int lineNumber()
+	{
+		return lineNumber;
+	}
+
+	public int charPosition()
+	{
+		return charPosition;
+	}
+
+	// The symbol for RESOLVE and DECLARE, the expected token or non-terminal
+	// for the other syntax errors, null for INCOMPLETE.
+	public String name()
+	{
+		return name;
+	}
+
+	// the token the parser stood on
+	public Token.Kind found()
+	{
+		return found;
+	}
+
+	// the scopes at the time of a RESOLVE or DECLARE error, null otherwise
+	public ScopeSnapshot scope()
+	{
+		return scope;
+	}
+
+	// The same error moved down by the given number of lines.
+	ParseError shift(int lines)
+	{
+		return new ParseError(kind, lineNumber + lines, charPosition, name, found, scope);
+	}
+
+	public String message()
+	{
+		switch (kind)
+		{
+		case EXPECTED_TOKEN:
+			return "SyntaxError(" + lineNumber + "," + charPosition + ")[Expected " + name + " but got " + found + ".]";
+		case EXPECTED_FROM:
+			return "SyntaxError(" + lineNumber + "," + charPosition + ")[Expected a token from " + name + " but got "
+					+ found + ".]";
+		case INCOMPLETE:
+			return "SyntaxError(" + lineNumber + "," + charPosition + ")[Could not complete parsing.]";
+		case RESOLVE:
+			return "ResolveSymbolError(" + lineNumber + "," + charPosition + ")[Could not find " + name + ".]";
+		default:
+			return "DeclareSymbolError(" + lineNumber + "," + charPosition + ")[" + name + " already exists.]";
+		}
+	}
+
+	// Renders the error as it appears in the report.
+	public void appendTo(StringBuilder sb)
+	{
+		sb.append(message());
+		if (kind == Kind.INCOMPLETE)
+		{
+			return;
+		}
+		sb.append("\n");
+		if (scope != null)
+		{
+			scope.appendTo(sb);
+			sb.append("\n");
+		}
+	}
+
+	public String toString()
+	{
+		return message();
+	}
+}
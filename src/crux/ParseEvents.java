@@ -0,0 +1,206 @@
+package crux;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight recorder events of the parser. They are all off unless the recording
+// turns them on, as the settings in jfr/crux.jfc do. The source is whatever
+// name Parser.setSource was given.
+//
+// Events are only made once the recorder has started: making the first one
+// sets up the recorder's machinery, which takes a good part of a second. The
+// begin methods give null before that, and the end methods take it.
+final class ParseEvents
+{
+	// Looked up once the recorder has started. Lookups run far more often
+	// than the other events, so a lookup is only timed while this is enabled.
+	private static volatile EventType lookupMissType;
+
+	private ParseEvents()
+	{
+	}
+
+	static Parse beginParse()
+	{
+		if (!FlightRecorder.isInitialized())
+		{
+			return null;
+		}
+		Parse event = new Parse();
+		event.begin();
+		return event;
+	}
+
+	static void endParse(Parse event, String source, int errors)
+	{
+		if (event != null && event.shouldCommit())
+		{
+			event.source = source;
+			event.errors = errors;
+			event.commit();
+		}
+	}
+
+	static FunctionScope beginFunction()
+	{
+		if (!FlightRecorder.isInitialized())
+		{
+			return null;
+		}
+		FunctionScope event = new FunctionScope();
+		event.begin();
+		return event;
+	}
+
+	static void endFunction(FunctionScope event, String source, String function, int lineNumber)
+	{
+		if (event != null && event.shouldCommit())
+		{
+			event.source = source;
+			event.function = function;
+			event.lineNumber = lineNumber;
+			event.commit();
+		}
+	}
+
+	// Begun before every lookup, as it is not known yet whether it misses. A
+	// hit drops the event, a miss ends it once reported or deferred.
+	static LookupMiss beginLookupMiss()
+	{
+		EventType type = lookupMissType;
+		if (type == null)
+		{
+			if (!FlightRecorder.isInitialized())
+			{
+				return null;
+			}
+			type = EventType.getEventType(LookupMiss.class);
+			lookupMissType = type;
+		}
+		if (!type.isEnabled())
+		{
+			return null;
+		}
+		LookupMiss event = new LookupMiss();
+		event.begin();
+		return event;
+	}
+
+	static void endLookupMiss(LookupMiss event, String source, String name, int lineNumber, int charPosition)
+	{
+		if (event != null && event.shouldCommit())
+		{
+			event.source = source;
+			event.name = name;
+			event.lineNumber = lineNumber;
+			event.charPosition = charPosition;
+			event.commit();
+		}
+	}
+
+	// begun with the parse, as the abort covers all of it
+	static Abort beginAbort()
+	{
+		if (!FlightRecorder.isInitialized())
+		{
+			return null;
+		}
+		Abort event = new Abort();
+		event.begin();
+		return event;
+	}
+
+	static void endAbort(Abort event, String source, ParseError error)
+	{
+		if (event != null && event.shouldCommit())
+		{
+			event.source = source;
+			event.lineNumber = error.lineNumber();
+			event.charPosition = error.charPosition();
+			event.message = error.message();
+			event.commit();
+		}
+	}
+
+	@Name("crux.Parse")
+	@Label("Parse")
+	@Category("Crux")
+	@Description("One run of Parser.parse")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Parse extends Event
+	{
+		@Label("Source")
+		String source;
+
+		@Label("Errors")
+		int errors;
+	}
+
+	@Name("crux.FunctionScope")
+	@Label("Function Scope")
+	@Category("Crux")
+	@Description("Parsing a function definition, from its name to the end of its body")
+	@Enabled(false)
+	@StackTrace(false)
+	static class FunctionScope extends Event
+	{
+		@Label("Source")
+		String source;
+
+		@Label("Function")
+		String function;
+
+		@Label("Line")
+		int lineNumber;
+	}
+
+	@Name("crux.LookupMiss")
+	@Label("Lookup Miss")
+	@Category("Crux")
+	@Description("A symbol lookup that found nothing in scope, until the miss is reported or deferred")
+	@Enabled(false)
+	@StackTrace(false)
+	static class LookupMiss extends Event
+	{
+		@Label("Source")
+		String source;
+
+		@Label("Name")
+		String name;
+
+		@Label("Line")
+		int lineNumber;
+
+		@Label("Position")
+		int charPosition;
+	}
+
+	@Name("crux.ParseAbort")
+	@Label("Parse Abort")
+	@Category("Crux")
+	@Description("A parse given up on a syntax error or at the error cap, from its start to the abort")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Abort extends Event
+	{
+		@Label("Source")
+		String source;
+
+		@Label("Line")
+		int lineNumber;
+
+		@Label("Position")
+		int charPosition;
+
+		@Label("Error")
+		String message;
+	}
+}
@@ -0,0 +1,22 @@
+package crux;
+
+// Receives what the parser finds while it runs, in source order, except for
+// deferred lookups (see Parser.setDeferredResolution) and lookups that
+// another unit of the program satisfies (see Parser.setSharedScope), which
+// arrive later. Positions are those of the identifier; depth is the scope
+// depth, 0 being the global scope. Failed declarations and lookups arrive as
+// errors instead.
+public interface ParseListener
+{
+	public void declare(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth);
+
+	public void resolve(int nameId, Symbol symbol, int lineNumber, int charPosition, int depth);
+
+	// depth of the scope just entered or just left
+	public void enterScope(int depth);
+
+	public void exitScope(int depth);
+
+	// Called for every error, including those past the report's limit.
+	public void error(ParseError error);
+}
@@ -0,0 +1,85 @@
+package crux;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+
+// Per-thread parsers for services that parse many sources. Each thread keeps
+// one scanner, one token buffer and one parser with its scopes, and resets
+// them for every source instead of allocating new ones. A thread is done
+// with the parser it got, except for its errors, when it asks for the next.
+public class ParsePool
+{
+	private static final ThreadLocal<ParsePool> POOL = ThreadLocal.withInitial(ParsePool::new);
+
+	private Scanner scanner;
+	private TokenBuffer buffer;
+	private Parser parser;
+
+	private ParsePool()
+	{
+	}
+
+	// A parser reading the source through the thread's scanner.
+	public static Parser parser(Reader reader)
+	{
+		ParsePool pool = POOL.get();
+		if (pool.scanner == null)
+		{
+			pool.scanner = new Scanner(reader);
+		}
+		else
+		{
+			pool.scanner.reset(reader);
+		}
+		return pool.parser(pool.scanner);
+	}
+
+	public static Parser parser(Path path) throws IOException
+	{
+		Parser parser = parser(new MappedSourceReader(path));
+		parser.setSource(path.toString());
+		return parser;
+	}
+
+	// A parser over the source lexed up front into the thread's token buffer.
+	public static Parser bufferedParser(Reader reader) throws IOException
+	{
+		ParsePool pool = POOL.get();
+		if (pool.buffer == null)
+		{
+			pool.buffer = TokenBuffer.lex(new char[0], 0);
+		}
+		pool.buffer.reset(reader);
+		return pool.parser(pool.buffer);
+	}
+
+	public static Parser bufferedParser(Path path) throws IOException
+	{
+		try (Reader reader = new MappedSourceReader(path))
+		{
+			Parser parser = bufferedParser(reader);
+			parser.setSource(path.toString());
+			return parser;
+		}
+	}
+
+	// Drops the thread's objects, for threads that are done parsing.
+	public static void clear()
+	{
+		POOL.remove();
+	}
+
+	private Parser parser(TokenStream tokens)
+	{
+		if (parser == null)
+		{
+			parser = new Parser(tokens);
+		}
+		else
+		{
+			parser.reset(tokens);
+		}
+		return parser;
+	}
+}
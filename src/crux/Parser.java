@@ -1,36 +1,241 @@
 package crux;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 
 import crux.Token.Kind;
 
 public class Parser
 {
-	private Scanner scanner;
-	private Token current;
+	public static final int DEFAULT_ERROR_LIMIT = 1000;
+
+	private TokenStream tokens;
+	private Token.Kind current;
 
 	private ErrorReport error;
 
-	private SymbolTable symbolTable;
+	private ScopeStack symbolTable;
+	// whether the built-ins are inserted into symbolTable on every parse
+	private boolean insertBuiltIns;
+
+	// error count at which parsing stops; 0 stops at the first syntax error
+	private int maxErrors;
+
+	private ParseListener listener;
+
+	private SymbolMetadata metadata;
+	// metadata id of the symbol whose declaration is being parsed, or -1
+	private int declaring = -1;
 
-	public Parser(Scanner scanner)
+	// names the source in flight recorder events
+	private String source = "";
+
+	private SharedGlobalScope sharedScope;
+	private int unit;
+
+	private boolean deferred;
+	// global symbols by name id, kept when deferring
+	private Symbol[] globals = new Symbol[0];
+	// the queue of deferred lookups, one record per index
+	private int[] deferredNameIds = new int[16];
+	private int[] deferredLineNumbers = new int[16];
+	private int[] deferredCharPositions = new int[16];
+	private int[] deferredDepths = new int[16];
+	private ParseError[] deferredErrors = new ParseError[16];
+	private int deferredCount;
+
+	public Parser(TokenStream tokens)
 	{
-		this.scanner = scanner;
+		this(tokens, BuiltIns.standard());
+	}
+
+	public Parser(TokenStream tokens, BuiltIns builtIns)
+	{
+		this(tokens, new ChainedScopeStack(tokens.names(), builtIns), false);
+	}
+
+	public Parser(TokenStream tokens, ScopeStack symbolTable)
+	{
+		this(tokens, symbolTable, true);
+	}
+
+	// Without built-ins the scope stack is expected to provide them, otherwise
+	// the standard ones are inserted into it.
+	Parser(TokenStream tokens, ScopeStack symbolTable, boolean builtIns)
+	{
+		this.tokens = tokens;
 		this.error = new ErrorReport();
+		this.symbolTable = symbolTable;
+		this.insertBuiltIns = builtIns;
+
+		if (builtIns)
+		{
+			initSymbolTable();
+		}
+	}
+
+	// Readies the parser for another source as if it had just been built for
+	// it, settings included, but keeps its tables and buffers. The errors of
+	// the previous parse stay valid.
+	public void reset(TokenStream tokens)
+	{
+		this.tokens = tokens;
+		this.current = null;
+		this.error.reset();
+		this.maxErrors = 0;
+		this.listener = null;
+		this.metadata = null;
+		this.declaring = -1;
+		this.source = "";
+		this.sharedScope = null;
+		this.unit = 0;
+		this.deferred = false;
+		Arrays.fill(globals, null);
+		Arrays.fill(deferredErrors, 0, deferredCount, null);
+		this.deferredCount = 0;
+
+		symbolTable.reset(tokens.names());
+		if (insertBuiltIns)
+		{
+			initSymbolTable();
+		}
+	}
+
+	// Keeps parsing past syntax errors, skipping to the end of the broken
+	// statement or declaration, until maxErrors errors have been reported.
+	// With 0, the default, parsing stops at the first syntax error.
+	public void setRecovery(int maxErrors)
+	{
+		this.maxErrors = maxErrors;
+	}
 
-		initSymbolTable();
+	// Keeps at most limit errors in the report. Later ones are only counted,
+	// so a pathological input cannot grow the report without bound.
+	public void setErrorLimit(int limit)
+	{
+		error.limit = limit;
+	}
+
+	// Set before parse(); null, the default, reports nothing.
+	public void setListener(ParseListener listener)
+	{
+		this.listener = listener;
+	}
+
+	// Set before parse(); null, the default, records nothing.
+	public void setMetadata(SymbolMetadata metadata)
+	{
+		this.metadata = metadata;
+	}
+
+	// The file name or other label of the source, for flight recorder events.
+	public void setSource(String source)
+	{
+		this.source = source;
+	}
+
+	// Parses this file as the given unit of a program whose files share one
+	// global scope. Global declarations and failed lookups stay pending until
+	// resolveSharedScope() is called, once every unit has been parsed: a
+	// lookup may be satisfied by any unit, and of several declarations of a
+	// name only the first in unit order stands. Pending errors are not
+	// passed to the listener before then, and neither are the lookups another
+	// unit satisfies, which then resolve to the symbol that unit declared.
+	// They are queued as deferred lookups are.
+	public void setSharedScope(SharedGlobalScope sharedScope, int unit)
+	{
+		this.sharedScope = sharedScope;
+		this.unit = unit;
+	}
+
+	public void resolveSharedScope()
+	{
+		for (int i = 0; i < deferredCount; i++)
+		{
+			Symbol symbol = sharedScope.symbol(tokens.names().name(deferredNameIds[i]));
+			if (symbol != null && listener != null)
+			{
+				listener.resolve(deferredNameIds[i], symbol, deferredLineNumbers[i], deferredCharPositions[i],
+						deferredDepths[i]);
+			}
+		}
+		Arrays.fill(deferredErrors, 0, deferredCount, null);
+		deferredCount = 0;
+		error.settle();
+	}
+
+	// Lets the program use globals declared further down. A lookup that fails
+	// is queued instead of reported, and the queue is resolved against the
+	// finished global scope at the end of parse(). Local scopes are resolved
+	// as they are parsed either way. Deferred lookups that succeed reach the
+	// listener at that point, after the rest of the parse. A shared scope
+	// already defers, so this has no effect together with one.
+	public void setDeferredResolution(boolean deferred)
+	{
+		this.deferred = deferred;
 	}
 
 	public void parse()
 	{
+		long start = Metrics.ENABLED ? System.nanoTime() : 0;
+		ParseEvents.Parse event = ParseEvents.beginParse();
+		ParseEvents.Abort abort = ParseEvents.beginAbort();
 		try
 		{
 			program();
 		}
 		catch (QuitParseException e)
 		{
+			ParseEvents.endAbort(abort, source, e.error);
 			error.reportSyntaxError();
 		}
+		// a shared scope resolves its queue once every unit is parsed
+		if (deferredCount > 0 && sharedScope == null)
+		{
+			resolveDeferred();
+		}
+		if (Metrics.ENABLED)
+		{
+			// a parse that stopped early left the scanner short of EOF
+			tokens.flushMetrics();
+			Metrics.parsed(System.nanoTime() - start);
+		}
+		ParseEvents.endParse(event, source, error.count());
+	}
+
+	// Parses the next top-level declaration, or the end of the program when no
+	// declaration starts at the current token. Calling this until the current
+	// token is EOF parses the same program as parse() does. Returns false
+	// after a syntax error.
+	boolean parseUnit()
+	{
+		if (current == null)
+		{
+			nextToken();
+		}
+		try
+		{
+			if (have(NonTerminal.DECLARATION_LIST))
+			{
+				declaration();
+			}
+			else
+			{
+				expect(Token.Kind.EOF);
+			}
+			return true;
+		}
+		catch (QuitParseException e)
+		{
+			error.reportSyntaxError();
+			return false;
+		}
 	}
 
 	// program := declaration-list EOF
@@ -44,9 +249,27 @@ public class Parser
 	// declaration-list := { declaration }
 	private void declarationList()
 	{
-		while (have(NonTerminal.DECLARATION_LIST))
+		// when recovering, stray tokens between declarations are reported as
+		// they would be without recovery and skipped
+		while (have(NonTerminal.DECLARATION_LIST) || (maxErrors > 0 && !have(Token.Kind.EOF)))
 		{
-			declaration();
+			int depth = symbolTable.getDepth();
+			try
+			{
+				if (have(NonTerminal.DECLARATION_LIST))
+				{
+					declaration();
+				}
+				else
+				{
+					expect(Token.Kind.EOF);
+				}
+			}
+			catch (QuitParseException e)
+			{
+				recover(e, depth);
+				synchronize(NonTerminal.DECLARATION_LIST, false);
+			}
 		}
 	}
 
@@ -73,7 +296,7 @@ public class Parser
 	{
 		if (accept(NonTerminal.VARIABLE_DECLARATION))
 		{
-			tryDeclareSymbol(current);
+			tryDeclareSymbol(SymbolMetadata.Kind.VARIABLE);
 			expect(Token.Kind.IDENTIFIER);
 			expect(Token.Kind.COLON);
 			type();
@@ -87,16 +310,27 @@ public class Parser
 	{
 		if (accept(NonTerminal.FUNCTION_DEFINITION))
 		{
-			tryDeclareSymbol(current);
+			ParseEvents.FunctionScope event = ParseEvents.beginFunction();
+			String name = tokens.tokenLexeme();
+			int lineNumber = tokens.tokenLineNumber();
+			tryDeclareSymbol(SymbolMetadata.Kind.FUNCTION);
+			int function = declaring;
 			expect(Token.Kind.IDENTIFIER);
 			expect(Token.Kind.OPEN_PAREN);
 			enterScope();
-			parameterList();
+			int parameters = parameterList();
 			expect(Token.Kind.CLOSE_PAREN);
 			expect(Token.Kind.COLON);
+			// the parameters were declared since, the return type is the function's
+			declaring = function;
+			if (function >= 0)
+			{
+				metadata.setParameterCount(function, parameters);
+			}
 			type();
 			statementBlock();
 			exitScope();
+			ParseEvents.endFunction(event, source, name, lineNumber);
 		}
 	}
 
@@ -106,16 +340,16 @@ public class Parser
 	{
 		if (accept(NonTerminal.ARRAY_DECLARATION))
 		{
-			tryDeclareSymbol(current);
+			tryDeclareSymbol(SymbolMetadata.Kind.ARRAY);
 			expect(Token.Kind.IDENTIFIER);
 			expect(Token.Kind.COLON);
 			type();
 			expect(Token.Kind.OPEN_BRACKET);
-			expect(Token.Kind.INTEGER);
+			dimension();
 			expect(Token.Kind.CLOSE_BRACKET);
 			while (accept(Token.Kind.OPEN_BRACKET))
 			{
-				expect(Token.Kind.INTEGER);
+				dimension();
 				expect(Token.Kind.CLOSE_BRACKET);
 			}
 			expect(Token.Kind.SEMICOLON);
@@ -135,7 +369,16 @@ public class Parser
 	{
 		while (have(NonTerminal.STATEMENT))
 		{
-			statement();
+			int depth = symbolTable.getDepth();
+			try
+			{
+				statement();
+			}
+			catch (QuitParseException e)
+			{
+				recover(e, depth);
+				synchronize(NonTerminal.STATEMENT, true);
+			}
 		}
 	}
 
@@ -181,7 +424,7 @@ public class Parser
 	{
 		if (accept(NonTerminal.CALL_EXPRESSION))
 		{
-			tryResolveSymbol(current);
+			tryResolveSymbol();
 			expect(Token.Kind.IDENTIFIER);
 			expect(Token.Kind.OPEN_PAREN);
 			expressionList();
@@ -206,7 +449,7 @@ public class Parser
 	{
 		if (have(NonTerminal.DESIGNATOR))
 		{
-			tryResolveSymbol(current);
+			tryResolveSymbol();
 			nextToken();
 			while (accept(Token.Kind.OPEN_BRACKET))
 			{
@@ -338,15 +581,19 @@ public class Parser
 	}
 
 	// parameter-list := [ parameter { "," parameter } ]
-	private void parameterList()
+	private int parameterList()
 	{
+		// the parameters parsed, also those whose name was already declared
+		int count = 0;
 		do
 		{
 			if (have(NonTerminal.PARAMETER))
 			{
 				parameter();
+				count++;
 			}
 		} while (accept(Token.Kind.COMMA));
+		return count;
 	}
 
 	// parameter := IDENTIFIER ":" type
@@ -354,7 +601,7 @@ public class Parser
 	{
 		if (have(NonTerminal.PARAMETER))
 		{
-			tryDeclareSymbol(current);
+			tryDeclareSymbol(SymbolMetadata.Kind.PARAMETER);
 			nextToken();
 			expect(Token.Kind.COLON);
 			type();
@@ -364,17 +611,41 @@ public class Parser
 	// type := IDENTIFIER
 	private void type()
 	{
+		if (declaring >= 0 && have(Token.Kind.IDENTIFIER))
+		{
+			int id = currentNameId();
+			metadata.setType(declaring, id, symbolTable.getNames().name(id));
+		}
 		expect(Token.Kind.IDENTIFIER);
 	}
 
+	// one INTEGER of an array declaration
+	private void dimension()
+	{
+		if (declaring >= 0 && have(Token.Kind.INTEGER))
+		{
+			int size;
+			try
+			{
+				size = Integer.parseInt(tokens.tokenLexeme());
+			}
+			catch (NumberFormatException e)
+			{
+				size = -1;
+			}
+			metadata.addDimension(declaring, size);
+		}
+		expect(Token.Kind.INTEGER);
+	}
+
 	private boolean have(NonTerminal nonterminal)
 	{
-		return nonterminal.firstSet().contains(current.kind);
+		return nonterminal.contains(current);
 	}
 
 	private boolean have(Kind kind)
 	{
-		return current.isToken(kind);
+		return current == kind;
 	}
 
 	private boolean accept(NonTerminal nonterminal)
@@ -403,8 +674,7 @@ public class Parser
 		{
 			return true;
 		}
-		String msg = error.reportSyntaxError(kind);
-		throw new QuitParseException(msg);
+		throw new QuitParseException(error.reportSyntaxError(kind));
 	}
 
 	private boolean expect(NonTerminal nonterminal)
@@ -413,15 +683,66 @@ public class Parser
 		{
 			return true;
 		}
-		String msg = error.reportSyntaxError(nonterminal);
-		throw new QuitParseException(msg);
+		throw new QuitParseException(error.reportSyntaxError(nonterminal));
+	}
+
+	// Rethrows unless recovering and under the error cap, otherwise closes the
+	// scopes the failed construct left open.
+	private void recover(QuitParseException e, int depth)
+	{
+		if (maxErrors == 0 || error.count() >= maxErrors)
+		{
+			throw e;
+		}
+		while (symbolTable.getDepth() > depth)
+		{
+			exitScope();
+		}
+	}
+
+	// Panic mode: skips to a token that can restart the enclosing list. In a
+	// block it also stops past the ";" or balanced "}" ending the broken
+	// statement, and before an unbalanced "}", which closes the block.
+	private void synchronize(NonTerminal restart, boolean block)
+	{
+		int nesting = 0;
+		while (!have(Token.Kind.EOF))
+		{
+			if (nesting == 0 && have(restart))
+			{
+				return;
+			}
+
+			if (have(Token.Kind.OPEN_BRACE))
+			{
+				nesting++;
+			}
+			else if (have(Token.Kind.CLOSE_BRACE) && nesting > 0)
+			{
+				if (--nesting == 0 && block)
+				{
+					nextToken();
+					return;
+				}
+			}
+			else if (block && nesting == 0 && have(Token.Kind.SEMICOLON))
+			{
+				nextToken();
+				return;
+			}
+			else if (block && nesting == 0 && have(Token.Kind.CLOSE_BRACE))
+			{
+				return;
+			}
+			nextToken();
+		}
 	}
 
 	private void nextToken()
 	{
 		try
 		{
-			current = scanner.next();
+			current = tokens.advance();
 		}
 		catch (IOException e)
 		{
@@ -439,69 +760,187 @@ public class Parser
 		return error.toString();
 	}
 
-	private void initSymbolTable()
+	// Renders the report one error at a time, so only the largest single
+	// scope listing is ever held in memory.
+	public void writeErrorReport(Writer out) throws IOException
 	{
-		symbolTable = new SymbolTable();
-		symbolTable.setParent(null);
-		symbolTable.setDepth(0);
+		error.writeTo(out);
+	}
 
-		symbolTable.insert("readInt");
-		symbolTable.insert("readFloat");
-		symbolTable.insert("printBool");
-		symbolTable.insert("printInt");
-		symbolTable.insert("printFloat");
-		symbolTable.insert("println");
+	// the errors kept in the report, in the order they were found
+	public List<ParseError> errors()
+	{
+		return Collections.unmodifiableList(error.entries);
+	}
+
+	Token.Kind current()
+	{
+		return current;
+	}
+
+	private void initSymbolTable()
+	{
+		NameTable names = symbolTable.getNames();
+		BuiltIns builtIns = BuiltIns.standard();
+		for (int id = 0; id < builtIns.size(); id++)
+		{
+			symbolTable.tryInsertBuiltIn(names.intern(builtIns.name(id)));
+		}
 	}
 
 	private void enterScope()
 	{
-		SymbolTable table = new SymbolTable();
-		table.setDepth(symbolTable.getDepth() + 1);
-		table.setParent(symbolTable);
-		symbolTable = table;
+		symbolTable.enterScope();
+		if (listener != null)
+		{
+			listener.enterScope(symbolTable.getDepth());
+		}
 	}
 
 	private void exitScope()
 	{
-		symbolTable = symbolTable.getParent();
+		if (listener != null)
+		{
+			listener.exitScope(symbolTable.getDepth());
+		}
+		symbolTable.exitScope();
 	}
 
-	private Symbol tryResolveSymbol(Token ident)
+	private Symbol tryResolveSymbol()
 	{
-		assert (ident.isToken(Token.Kind.IDENTIFIER));
-		String name = ident.lexeme;
-		try
+		assert (have(Token.Kind.IDENTIFIER));
+		int id = currentNameId();
+		ParseEvents.LookupMiss miss = ParseEvents.beginLookupMiss();
+		Symbol symbol = symbolTable.find(id);
+		if (symbol != null)
 		{
-			return symbolTable.lookup(name);
+			if (listener != null)
+			{
+				listener.resolve(id, symbol, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+						symbolTable.getDepth());
+			}
+			return symbol;
 		}
-		catch (SymbolNotFoundError e)
+
+		ParseError message;
+		if (deferred || sharedScope != null)
 		{
-			String message = reportResolveSymbolError(name, ident.lineNumber, ident.charPosition);
-			return new ErrorSymbol(message);
+			message = defer(id);
 		}
+		else
+		{
+			message = reportResolveSymbolError(tokens.tokenLexeme(), tokens.tokenLineNumber(),
+					tokens.tokenCharPosition());
+		}
+		ParseEvents.endLookupMiss(miss, source, tokens.tokenLexeme(), tokens.tokenLineNumber(),
+				tokens.tokenCharPosition());
+		return new ErrorSymbol(message);
 	}
 
-	private String reportResolveSymbolError(String name, int lineNum, int charPos)
+	private ParseError reportResolveSymbolError(String name, int lineNum, int charPos)
 	{
 		return error.reportResolveSymbolError(lineNum, charPos, name);
 	}
 
-	private Symbol tryDeclareSymbol(Token ident)
+	private Symbol tryDeclareSymbol(SymbolMetadata.Kind kind)
 	{
-		assert (ident.isToken(Token.Kind.IDENTIFIER));
-		String name = ident.lexeme;
-		try
+		assert (have(Token.Kind.IDENTIFIER));
+		declaring = -1;
+		int id = currentNameId();
+		boolean shared = sharedScope != null && symbolTable.getDepth() == 0;
+		ScopeSnapshot before = shared ? symbolTable.snapshot() : null;
+		Symbol symbol = symbolTable.tryInsert(id);
+		if (symbol == null)
 		{
-			return symbolTable.insert(name);
+			ParseError message = reportDeclareSymbolError(tokens.tokenLexeme(), tokens.tokenLineNumber(),
+					tokens.tokenCharPosition());
+			return new ErrorSymbol(message);
 		}
-		catch (RedeclarationError re)
+
+		if (shared)
 		{
-			String message = reportDeclareSymbolError(name, ident.lineNumber, ident.charPosition);
-			return new ErrorSymbol(message);
+			error.reportPending(ParseError.Kind.DECLARE, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+					tokens.tokenLexeme(), before);
+			sharedScope.declare(symbol, unit, tokens.tokenLineNumber(), tokens.tokenCharPosition());
+		}
+		else if (deferred && symbolTable.getDepth() == 0)
+		{
+			if (id >= globals.length)
+			{
+				globals = Arrays.copyOf(globals, Math.max(id + 1, globals.length * 2));
+			}
+			globals[id] = symbol;
+		}
+		if (metadata != null)
+		{
+			declaring = metadata.declare(id, symbol, kind, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+					symbolTable.getDepth());
+		}
+		if (listener != null)
+		{
+			listener.declare(id, symbol, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+					symbolTable.getDepth());
+		}
+		return symbol;
+	}
+
+	private ParseError defer(int id)
+	{
+		if (deferredCount == deferredNameIds.length)
+		{
+			int capacity = deferredCount * 2;
+			deferredNameIds = Arrays.copyOf(deferredNameIds, capacity);
+			deferredLineNumbers = Arrays.copyOf(deferredLineNumbers, capacity);
+			deferredCharPositions = Arrays.copyOf(deferredCharPositions, capacity);
+			deferredDepths = Arrays.copyOf(deferredDepths, capacity);
+			deferredErrors = Arrays.copyOf(deferredErrors, capacity);
+		}
+
+		int i = deferredCount++;
+		deferredNameIds[i] = id;
+		deferredLineNumbers[i] = tokens.tokenLineNumber();
+		deferredCharPositions[i] = tokens.tokenCharPosition();
+		deferredDepths[i] = symbolTable.getDepth();
+		// the error keeps its place in the report in case the name never shows up
+		deferredErrors[i] = error.reportPending(ParseError.Kind.RESOLVE, tokens.tokenLineNumber(),
+				tokens.tokenCharPosition(), tokens.tokenLexeme());
+		return deferredErrors[i];
+	}
+
+	// One pass over the queue against the global symbols, which are final now.
+	private void resolveDeferred()
+	{
+		Set<ParseError> resolved = Collections.newSetFromMap(new IdentityHashMap<ParseError, Boolean>());
+		for (int i = 0; i < deferredCount; i++)
+		{
+			int id = deferredNameIds[i];
+			Symbol symbol = id < globals.length ? globals[id] : null;
+			if (symbol != null)
+			{
+				resolved.add(deferredErrors[i]);
+				if (listener != null)
+				{
+					listener.resolve(id, symbol, deferredLineNumbers[i], deferredCharPositions[i], deferredDepths[i]);
+				}
+			}
+		}
+		deferredCount = 0;
+		error.settle(resolved);
+	}
+
+	// Only identifiers are interned by the scanner, but a malformed program
+	// can put any token where a name is expected.
+	private int currentNameId()
+	{
+		int id = tokens.tokenNameId();
+		if (id >= 0)
+		{
+			return id;
 		}
+		return symbolTable.getNames().intern(tokens.tokenLexeme());
 	}
 
-	private String reportDeclareSymbolError(String name, int lineNum, int charPos)
+	private ParseError reportDeclareSymbolError(String name, int lineNum, int charPos)
 	{
 		return error.reportDeclareSymbolError(lineNum, charPos, name);
 	}
@@ -510,63 +949,249 @@ public class Parser
 	{
 		private static final long serialVersionUID = 1L;
 
-		public QuitParseException(String msg)
+		private final ParseError error;
+
+		public QuitParseException(ParseError error)
+		{
+			this.error = error;
+		}
+
+		public String getMessage()
 		{
-			super(msg);
+			return error.message();
 		}
 	}
 
 	private class ErrorReport
 	{
-		private StringBuffer buffer = new StringBuffer();
-		private final String expectedResponse = "SyntaxError(%d,%d)[Expected %s but got %s.]";
-		private final String tokenResponse = "SyntaxError(%d,%d)[Expected a token from %s but got %s.]";
-		private final String syntaxResponse = "SyntaxError(%d,%d)[Could not complete parsing.]";
+		private List<ParseError> entries = new ArrayList<ParseError>();
+		private int limit = DEFAULT_ERROR_LIMIT;
+		// errors found past the limit
+		private int omitted;
+		// entries waiting on the shared global scope
+		private Set<ParseError> pending = Collections.newSetFromMap(new IdentityHashMap<ParseError, Boolean>());
 
 		public boolean hasError()
 		{
-			return buffer.length() != 0;
+			return count() > 0;
+		}
+
+		// The old list may have been handed out by errors(), so it is replaced
+		// rather than cleared. An empty ArrayList holds no array yet.
+		private void reset()
+		{
+			entries = new ArrayList<ParseError>();
+			pending.clear();
+			limit = DEFAULT_ERROR_LIMIT;
+			omitted = 0;
+		}
+
+		private int count()
+		{
+			return entries.size() - pending.size() + omitted;
 		}
 
 		public String toString()
 		{
-			return buffer.toString();
+			StringBuilder sb = new StringBuilder();
+			try
+			{
+				render(sb, null);
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+			return sb.toString();
+		}
+
+		private void writeTo(Writer out) throws IOException
+		{
+			render(new StringBuilder(), out);
+		}
+
+		// Renders into sb, or through sb one error at a time when out is given.
+		// The note on omitted errors goes where they would have been, which is
+		// before a closing "Could not complete parsing.".
+		private void render(StringBuilder sb, Writer out) throws IOException
+		{
+			for (int i = 0; i <= entries.size(); i++)
+			{
+				if (i == limit && omitted > 0)
+				{
+					sb.append("... ").append(omitted).append(" more error(s) not reported.\n");
+				}
+				if (i < entries.size())
+				{
+					entries.get(i).appendTo(sb);
+				}
+				if (out != null)
+				{
+					out.append(sb);
+					sb.setLength(0);
+				}
+			}
 		}
 
 		private void reportSyntaxError()
 		{
-			String message = String.format(syntaxResponse, current.lineNumber, current.charPosition);
-			buffer.append(message);
+			add(ParseError.Kind.INCOMPLETE, tokens.tokenLineNumber(), tokens.tokenCharPosition(), null, null);
 		}
 
-		private String reportSyntaxError(NonTerminal nonTerminal)
+		private ParseError reportSyntaxError(NonTerminal nonTerminal)
 		{
-			String message = String.format(tokenResponse, current.lineNumber, current.charPosition, nonTerminal.name(), current.kind);
-			buffer.append(message + "\n");
-			return message;
+			return add(ParseError.Kind.EXPECTED_FROM, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+					nonTerminal.name(), null);
 		}
 
-		private String reportSyntaxError(Token.Kind kind)
+		private ParseError reportSyntaxError(Token.Kind kind)
 		{
-			String message = String.format(expectedResponse, current.lineNumber, current.charPosition, kind, current.kind);
-			buffer.append(message + "\n");
-			return message;
+			return add(ParseError.Kind.EXPECTED_TOKEN, tokens.tokenLineNumber(), tokens.tokenCharPosition(),
+					kind.toString(), null);
 		}
 
-		private String reportResolveSymbolError(int lineNumber, int charPosition, String name)
+		private ParseError reportResolveSymbolError(int lineNumber, int charPosition, String name)
 		{
-			String message = "ResolveSymbolError(" + lineNumber + "," + charPosition + ")[Could not find " + name + ".]";
-			buffer.append(message + "\n");
-			buffer.append(symbolTable.toString() + "\n");
-			return message;
+			ParseError entry = add(ParseError.Kind.RESOLVE, lineNumber, charPosition, name, symbolTable.snapshot());
+			checkCap(entry);
+			return entry;
 		}
 
-		private String reportDeclareSymbolError(int lineNumber, int charPosition, String name)
+		private ParseError reportDeclareSymbolError(int lineNumber, int charPosition, String name)
 		{
-			String message = "DeclareSymbolError(" + lineNumber + "," + charPosition + ")[" + name + " already exists.]";
-			buffer.append(message + "\n");
-			buffer.append(symbolTable.toString() + "\n");
-			return message;
+			ParseError entry = add(ParseError.Kind.DECLARE, lineNumber, charPosition, name, symbolTable.snapshot());
+			checkCap(entry);
+			return entry;
+		}
+
+		// Symbol errors never stop a parse on their own, except at the cap
+		// when recovering.
+		private void checkCap(ParseError entry)
+		{
+			if (maxErrors > 0 && count() >= maxErrors)
+			{
+				throw new QuitParseException(entry);
+			}
+		}
+
+		// Pending entries hold their place in the report and are not limited,
+		// most of them go away.
+		private ParseError reportPending(ParseError.Kind kind, int lineNumber, int charPosition, String name)
+		{
+			return reportPending(kind, lineNumber, charPosition, name, symbolTable.snapshot());
+		}
+
+		private ParseError reportPending(ParseError.Kind kind, int lineNumber, int charPosition, String name,
+				ScopeSnapshot scope)
+		{
+			ParseError entry = new ParseError(kind, lineNumber, charPosition, name, current, scope);
+			entries.add(entry);
+			pending.add(entry);
+			return entry;
+		}
+
+		// Drops the pending entries the shared scope satisfied, keeps the rest
+		// as errors.
+		private void settle()
+		{
+			Set<ParseError> satisfied = Collections.newSetFromMap(new IdentityHashMap<ParseError, Boolean>());
+			for (ParseError entry : pending)
+			{
+				if (entry.kind() == ParseError.Kind.RESOLVE ? sharedScope.isDeclared(entry.name())
+						: sharedScope.isFirst(entry.name(), unit, entry.lineNumber(), entry.charPosition()))
+				{
+					satisfied.add(entry);
+				}
+			}
+			settle(satisfied);
+		}
+
+		// Drops the satisfied pending entries and confirms the others, which
+		// can push later errors past the limit. When recovering, the errors
+		// past the cap are dropped, as the parse would have stopped at the
+		// last one kept, and the report is closed as if it had.
+		private void settle(Set<ParseError> satisfied)
+		{
+			List<ParseError> kept = new ArrayList<ParseError>(entries.size());
+			int cap = maxErrors > 0 ? maxErrors : Integer.MAX_VALUE;
+			// dropped at the limit before, after every error still listed
+			int earlier = omitted;
+			int confirmed = 0;
+			ParseError last = null;
+			boolean incomplete = false;
+			omitted = 0;
+			for (ParseError entry : entries)
+			{
+				if (entry.kind() == ParseError.Kind.INCOMPLETE)
+				{
+					kept.add(entry);
+					incomplete = true;
+					continue;
+				}
+				if ((pending.contains(entry) && satisfied.contains(entry)) || confirmed == cap)
+				{
+					continue;
+				}
+				if (pending.contains(entry))
+				{
+					if (listener != null)
+					{
+						listener.error(entry);
+					}
+					if (Metrics.ENABLED)
+					{
+						Metrics.error();
+					}
+				}
+				confirmed++;
+				last = entry;
+				if (kept.size() < limit)
+				{
+					kept.add(entry);
+				}
+				else
+				{
+					omitted++;
+				}
+			}
+			omitted += Math.min(earlier, cap - confirmed);
+			entries = kept;
+			pending.clear();
+
+			if (confirmed + earlier >= cap && !incomplete)
+			{
+				if (last == null)
+				{
+					reportSyntaxError();
+				}
+				else
+				{
+					add(ParseError.Kind.INCOMPLETE, last.lineNumber(), last.charPosition(), null, null);
+				}
+			}
+		}
+
+		// The closing "Could not complete parsing." is always kept.
+		private ParseError add(ParseError.Kind kind, int lineNumber, int charPosition, String name, ScopeSnapshot scope)
+		{
+			ParseError entry = new ParseError(kind, lineNumber, charPosition, name, current, scope);
+			if (listener != null)
+			{
+				listener.error(entry);
+			}
+			if (Metrics.ENABLED)
+			{
+				Metrics.error();
+			}
+			if (entries.size() - pending.size() < limit || kind == ParseError.Kind.INCOMPLETE)
+			{
+				entries.add(entry);
+			}
+			else
+			{
+				omitted++;
+			}
+			return entry;
 		}
 	}
 }
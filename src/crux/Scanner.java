@@ -2,15 +2,42 @@ package crux;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.file.Path;
 
 
-public class Scanner {
+public class Scanner implements TokenStream {
 
 	private int lineNumber;
 	private int charPosition;
 	private int nextChar;
 
 	private Reader reader;
+	private NameTable names;
+
+	private char[] buffer;
+	private int bufferPosition;
+	private int bufferLimit;
+
+	// offsets into the source of the last char read and of nextChar
+	private int sourceOffset;
+	private int readOffset;
+	private int nextOffset;
+	private int valueOffset;
+
+	private char[] lexeme;
+	private int lexemeLength;
+
+	// the token most recently scanned by advance()
+	private Token.Kind tokenKind;
+	private int tokenLineNumber;
+	private int tokenCharPosition;
+	private int tokenOffset;
+	private int tokenNameId;
+	// tokens and time spent in advance() not yet added to Metrics
+	private int scannedTokens;
+	private long lexNanos;
+	// EOF was reached and the lex recorded
+	private boolean lexed;
 
 	private static final int EOF = -1;
 	private static final int TAB = 9;
@@ -18,13 +45,101 @@ public class Scanner {
 	private static final int ENTER = 13;
 	private static final int WS = 32;
 
+	private static final int BUFFER_SIZE = 8192;
+
+	// Character classes for the ASCII range; anything above is classified
+	// with Character.isLetter and Character.isDigit like Token does.
+	private static final byte OTHER = 0;
+	private static final byte LETTER = 1;
+	private static final byte DIGIT = 2;
+	private static final byte UNDERSCORE = 3;
+	private static final byte DOT = 4;
+	private static final byte PLUS = 5;
+	private static final byte MINUS = 6;
+
+	private static final byte[] CLASSES = new byte[128];
+
+	// The DFA runs one sub-automaton per way a lexeme can be a token: a prefix
+	// of a fixed token lexeme, an integer, a float or an identifier. DEAD
+	// means the sub-automaton can no longer match.
+	private static final int DEAD = -1;
+	private static final int START = 0;
+
+	private static final int INTEGER_SIGN = 1;
+	private static final int INTEGER_DIGITS = 2;
+
+	private static final int FLOAT_WHOLE = 1;
+	private static final int FLOAT_FRACTION = 2;
+
+	private static final int IDENTIFIER_BODY = 1;
+
+	private int prefixState;
+	private int integerState;
+	private long integerValue;
+	private boolean integerNegative;
+	private int floatState;
+	private int identifierState;
+
+	static {
+		for (int c = 0; c < 128; c++) {
+			if (Character.isLetter(c)) {
+				CLASSES[c] = LETTER;
+			} else if (Character.isDigit(c)) {
+				CLASSES[c] = DIGIT;
+			}
+		}
+		CLASSES['_'] = UNDERSCORE;
+		CLASSES['.'] = DOT;
+		CLASSES['+'] = PLUS;
+		CLASSES['-'] = MINUS;
+	}
+
 	public Scanner(Reader reader) {
-		this.lineNumber = 1;
-		this.charPosition = -1;
+		this(reader, BuiltIns.standard().newNameTable(), 1, 0, 0);
+	}
+
+	public Scanner(Path path) throws IOException {
+		this(new MappedSourceReader(path));
+	}
+
+	// Resumes scanning part way into a source. The reader starts at offset and
+	// lineNumber and charPosition are where the scanner stood after the token
+	// just before it, so positions and offsets come out as in a full scan.
+	Scanner(Reader reader, NameTable names, int lineNumber, int charPosition, int offset) {
+		this.names = names;
+		this.buffer = new char[BUFFER_SIZE];
+		this.lexeme = new char[64];
+		start(reader, lineNumber, charPosition, offset);
+	}
+
+	// Starts over on another source as a new Scanner would, keeping the
+	// buffers. The name table is cleared back to the standard built-ins.
+	public void reset(Reader reader) {
+		names.reset(BuiltIns.standard().names());
+		start(reader, 1, 0, 0);
+	}
+
+	private void start(Reader reader, int lineNumber, int charPosition, int offset) {
+		this.lineNumber = lineNumber;
+		this.charPosition = charPosition - 1;
 		this.nextChar = 0;
 
 		this.reader = reader;
 
+		this.bufferPosition = 0;
+		this.bufferLimit = 0;
+		this.sourceOffset = offset;
+
+		this.lexemeLength = 0;
+		this.tokenKind = null;
+		this.tokenLineNumber = 0;
+		this.tokenCharPosition = 0;
+		this.tokenOffset = 0;
+		this.tokenNameId = 0;
+		this.scannedTokens = 0;
+		this.lexNanos = 0;
+		this.lexed = false;
+
 		try {
 			read();
 		} catch (IOException e) {
@@ -32,56 +147,262 @@ public class Scanner {
 		}
 	}
 
+	private int readChar() throws IOException {
+		if (bufferPosition == bufferLimit) {
+			// one add per buffer keeps the count current on long sources
+			if (Metrics.ENABLED && scannedTokens > 0) {
+				Metrics.scanned(scannedTokens);
+				scannedTokens = 0;
+			}
+			do {
+				bufferLimit = reader.read(buffer, 0, buffer.length);
+			} while (bufferLimit == 0);
+
+			bufferPosition = 0;
+			if (bufferLimit < 0) {
+				bufferLimit = 0;
+				readOffset = sourceOffset;
+				return EOF;
+			}
+		}
+		readOffset = sourceOffset++;
+		return buffer[bufferPosition++];
+	}
+
 	private int read() throws IOException {
 		int result = nextChar;
+		int resultOffset = nextOffset;
 
 		while (result == NL || result == ENTER) {
 			++lineNumber;
 			charPosition = 0;
-			result = reader.read();
+			result = readChar();
+			resultOffset = readOffset;
 		}
 
-		nextChar = reader.read();
+		nextChar = readChar();
+		nextOffset = readOffset;
+		valueOffset = resultOffset;
 		++charPosition;
 		return result;
 	}
 
 	public Token next() throws IOException {
-		String lexeme = "";
+		Token.Kind kind = advance();
+
+		if (kind == Token.Kind.IDENTIFIER) {
+			Token token = Token.generate(kind, names.name(tokenNameId), tokenLineNumber, tokenCharPosition);
+			token.nameId = tokenNameId;
+			return token;
+		}
+
+		if (kind.lexeme().isEmpty() && kind != Token.Kind.EOF) {
+			return Token.generate(kind, tokenLexeme(), tokenLineNumber, tokenCharPosition);
+		}
+		return Token.generate(kind, tokenLineNumber, tokenCharPosition);
+	}
+
+	public Token.Kind advance() throws IOException {
+		if (!Metrics.ENABLED || lexed) {
+			return lex();
+		}
+		long start = System.nanoTime();
+		Token.Kind kind = lex();
+		lexNanos += System.nanoTime() - start;
+		if (kind == Token.Kind.EOF) {
+			flushMetrics();
+			lexed = true;
+		}
+		return kind;
+	}
+
+	// Records one lex of the source so far. Parsers call this when they stop
+	// reading, which may be before EOF.
+	public void flushMetrics() {
+		if (scannedTokens > 0) {
+			Metrics.scanned(scannedTokens);
+			scannedTokens = 0;
+		}
+		if (lexNanos > 0) {
+			Metrics.lexed(lexNanos);
+			lexNanos = 0;
+		}
+	}
+
+	private Token.Kind lex() throws IOException {
+		lexemeLength = 0;
 
 		int value = 0;
-		int count = 0;
 
 		do {
 			value = read();
 
 			if (value == EOF) {
-				return Token.generate(Token.Kind.EOF, lineNumber, charPosition);
-			}
-
-			if (value == WS || value == TAB) {
-				continue;
+				return emit(Token.Kind.EOF, charPosition, valueOffset);
 			}
 
-			lexeme += (char) value;
+			if (lexemeLength == 0) {
+				if (value == WS || value == TAB) {
+					continue;
+				}
 
-			if ((lexeme + (char) nextChar).equals("//")) {
-				while (!(nextChar == NL || nextChar == EOF || nextChar == ENTER)) {
-					read();
+				if (value == '/' && nextChar == '/') {
+					while (!(nextChar == NL || nextChar == EOF || nextChar == ENTER)) {
+						read();
+					}
+					continue;
 				}
 
-				lexeme = "";
-				continue;
+				prefixState = Token.PREFIX_START;
+				integerState = START;
+				integerValue = 0;
+				integerNegative = false;
+				floatState = START;
+				identifierState = START;
+				step(value, true);
+				tokenCharPosition = charPosition;
+				tokenOffset = valueOffset;
 			}
 
-			if (!Token.isToken(lexeme + (char) nextChar)) {
-				return Token.generate(lexeme, lineNumber, charPosition - count);
+			if (lexemeLength == lexeme.length) {
+				char[] grown = new char[lexeme.length * 2];
+				System.arraycopy(lexeme, 0, grown, 0, lexemeLength);
+				lexeme = grown;
 			}
+			lexeme[lexemeLength++] = (char) value;
 
-			++count;
+			if (nextChar == EOF || !step(nextChar, false)) {
+				return emit(kind(), tokenCharPosition, tokenOffset);
+			}
 		} while (true);
 	}
 
+	// Steps every sub-automaton over c. The new state is kept only if the
+	// lexeme extended by c is still a token, or when forced for the first
+	// character of a lexeme.
+	private boolean step(int c, boolean force) {
+		int cls;
+		if (c < 128) {
+			cls = CLASSES[c];
+		} else if (Character.isLetter((char) c)) {
+			cls = LETTER;
+		} else if (Character.isDigit((char) c)) {
+			cls = DIGIT;
+		} else {
+			cls = OTHER;
+		}
+
+		int prefix = prefixState == DEAD ? DEAD : Token.prefixStep(prefixState, c);
+
+		int integer = DEAD;
+		long value = integerValue;
+		boolean negative = integerNegative;
+		if (integerState == START && (cls == PLUS || cls == MINUS)) {
+			integer = INTEGER_SIGN;
+			negative = cls == MINUS;
+		} else if (integerState != DEAD && cls == DIGIT) {
+			value = value * 10 + Character.digit((char) c, 10);
+			if (negative ? value == 0 : value <= Integer.MAX_VALUE) {
+				integer = INTEGER_DIGITS;
+			}
+		}
+
+		int fraction = DEAD;
+		if (floatState == START) {
+			fraction = cls == DIGIT ? FLOAT_WHOLE : DEAD;
+		} else if (floatState != DEAD) {
+			if (cls == DIGIT) {
+				fraction = floatState;
+			} else if (cls == DOT && floatState == FLOAT_WHOLE) {
+				fraction = FLOAT_FRACTION;
+			}
+		}
+
+		int identifier = DEAD;
+		if (identifierState == START) {
+			identifier = (cls == LETTER || cls == UNDERSCORE) ? IDENTIFIER_BODY : DEAD;
+		} else if (identifierState != DEAD) {
+			identifier = (cls == LETTER || cls == DIGIT || cls == UNDERSCORE) ? IDENTIFIER_BODY : DEAD;
+		}
+
+		boolean token = prefix != DEAD || integer == INTEGER_DIGITS
+				|| fraction == FLOAT_FRACTION || identifier == IDENTIFIER_BODY;
+		if (token || force) {
+			prefixState = prefix;
+			integerState = integer;
+			integerValue = value;
+			integerNegative = negative;
+			floatState = fraction;
+			identifierState = identifier;
+		}
+		return token;
+	}
+
+	private Token.Kind kind() {
+		if (prefixState != DEAD && Token.prefixKind(prefixState) != null) {
+			return Token.prefixKind(prefixState);
+		}
+
+		if (integerState == INTEGER_DIGITS) {
+			return Token.Kind.INTEGER;
+		} else if (floatState == FLOAT_FRACTION) {
+			return Token.Kind.FLOAT;
+		} else if (identifierState == IDENTIFIER_BODY) {
+			return Token.Kind.IDENTIFIER;
+		}
+		return Token.Kind.ERROR;
+	}
+
+	private Token.Kind emit(Token.Kind kind, int charPosition, int offset) {
+		tokenKind = kind;
+		tokenLineNumber = lineNumber;
+		tokenCharPosition = charPosition;
+		tokenOffset = offset;
+		tokenNameId = kind == Token.Kind.IDENTIFIER ? names.intern(lexeme, 0, lexemeLength) : -1;
+		if (Metrics.ENABLED) {
+			scannedTokens++;
+		}
+		return kind;
+	}
+
+	public Token.Kind tokenKind() {
+		return tokenKind;
+	}
+
+	public int tokenLineNumber() {
+		return tokenLineNumber;
+	}
+
+	public int tokenCharPosition() {
+		return tokenCharPosition;
+	}
+
+	public int tokenNameId() {
+		return tokenNameId;
+	}
+
+	public String tokenLexeme() {
+		if (tokenKind == Token.Kind.IDENTIFIER) {
+			return names.name(tokenNameId);
+		}
+		if (tokenKind.lexeme().isEmpty()) {
+			return new String(lexeme, 0, lexemeLength);
+		}
+		return tokenKind.lexeme();
+	}
+
+	int tokenOffset() {
+		return tokenOffset;
+	}
+
+	int tokenLength() {
+		return lexemeLength;
+	}
+
+	public NameTable names() {
+		return names;
+	}
+
 	public void close() throws IOException {
 		reader.close();
 	}
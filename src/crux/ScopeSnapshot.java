@@ -0,0 +1,6 @@
+package crux;
+
+public interface ScopeSnapshot
+{
+	public void appendTo(StringBuilder sb);
+}
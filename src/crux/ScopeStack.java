@@ -0,0 +1,33 @@
+package crux;
+
+public interface ScopeStack
+{
+	public NameTable getNames();
+
+	public int getDepth();
+
+	public void enterScope();
+
+	public void exitScope();
+
+	// null when no open scope has the name
+	public Symbol find(int id);
+
+	// null when the innermost scope already has the name
+	public Symbol tryInsert(int id);
+
+	// tryInsert for the built-ins a parser sets up, which Metrics does not
+	// count as inserts
+	public Symbol tryInsertBuiltIn(int id);
+
+	// find and tryInsert, failing with an Error instead of null
+	public Symbol lookup(int id) throws SymbolNotFoundError;
+
+	public Symbol insert(int id) throws RedeclarationError;
+
+	public ScopeSnapshot snapshot();
+
+	// Empties the stack for another parse with the given names, as if it had
+	// just been built. Snapshots taken before stay valid.
+	public void reset(NameTable names);
+}
@@ -0,0 +1,74 @@
+package crux;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// The global scope of a program split over several files that are parsed in
+// parallel, see Parser.setSharedScope. Inserts go through a ConcurrentHashMap,
+// which only locks the bin being updated. For every name the declaration
+// that comes first in (unit, line, position) order wins, whatever order the
+// threads ran in, so redeclaration errors are the same on every run.
+public class SharedGlobalScope
+{
+	private final ConcurrentHashMap<String, Declaration> declarations = new ConcurrentHashMap<String, Declaration>();
+
+	private static class Declaration
+	{
+		private final Symbol symbol;
+		private final int unit;
+		private final int lineNumber;
+		private final int charPosition;
+
+		private Declaration(Symbol symbol, int unit, int lineNumber, int charPosition)
+		{
+			this.symbol = symbol;
+			this.unit = unit;
+			this.lineNumber = lineNumber;
+			this.charPosition = charPosition;
+		}
+
+		private boolean before(Declaration other)
+		{
+			if (unit != other.unit)
+			{
+				return unit < other.unit;
+			}
+			if (lineNumber != other.lineNumber)
+			{
+				return lineNumber < other.lineNumber;
+			}
+			return charPosition < other.charPosition;
+		}
+	}
+
+	public void declare(Symbol symbol, int unit, int lineNumber, int charPosition)
+	{
+		declarations.merge(symbol.name(), new Declaration(symbol, unit, lineNumber, charPosition),
+				(a, b) -> a.before(b) ? a : b);
+	}
+
+	public boolean isDeclared(String name)
+	{
+		return declarations.containsKey(name);
+	}
+
+	// Whether the declaration at this place is the one the name resolves to.
+	public boolean isFirst(String name, int unit, int lineNumber, int charPosition)
+	{
+		Declaration first = declarations.get(name);
+		return first != null && first.unit == unit && first.lineNumber == lineNumber
+				&& first.charPosition == charPosition;
+	}
+
+	// The symbol of the declaration the name resolves to, null if there is
+	// none. Read it once every unit has been parsed.
+	public Symbol symbol(String name)
+	{
+		Declaration first = declarations.get(name);
+		return first == null ? null : first.symbol;
+	}
+
+	public int size()
+	{
+		return declarations.size();
+	}
+}
@@ -4,6 +4,13 @@ public class Symbol
 {
 	private static final String response = "Symbol(%s)";
 	private String name;
+	// id in the SymbolMetadata that recorded the declaration, or -1
+	int metadataId = -1;
+	// id in the CrossReferenceIndex that last saw it, or -1; never set on a
+	// shared symbol, which many parsers can see at once
+	int referenceId = -1;
+	// in a frozen scope such as the built-ins
+	boolean shared;
 	
 	public Symbol(String name)
 	{
@@ -28,8 +35,27 @@ public class Symbol
 
 class ErrorSymbol extends Symbol
 {
+	private ParseError error;
+
 	public ErrorSymbol(String message)
 	{
 		super(message);
 	}
+
+	// named after the error's message, formatted only when asked for
+	ErrorSymbol(ParseError error)
+	{
+		super(null);
+		this.error = error;
+	}
+
+	public String name()
+	{
+		return error == null ? super.name() : error.message();
+	}
+
+	public String toString()
+	{
+		return error == null ? super.toString() : "Symbol(" + error.message() + ")";
+	}
 }
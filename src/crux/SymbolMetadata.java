@@ -0,0 +1,192 @@
+package crux;
+
+import java.util.Arrays;
+
+// What the parser knows about each symbol it declares, for the type checker:
+// set it with Parser.setMetadata. Symbols get dense ids in declaration order,
+// kept on the Symbol itself, and every field is a column, a primitive array
+// indexed by symbol id, so a large program costs a few arrays rather than an
+// object per symbol. Array dimensions are packed in one more array, each
+// symbol's run in order. Failed declarations are not recorded.
+public class SymbolMetadata
+{
+	public enum Kind
+	{
+		VARIABLE, ARRAY, FUNCTION, PARAMETER
+	}
+
+	private static final Kind[] KINDS = Kind.values();
+	private static final int INITIAL_CAPACITY = 64;
+
+	// per symbol id; types are slots in typeNameIds, -1 until the type has
+	// been parsed
+	private Symbol[] symbols = new Symbol[INITIAL_CAPACITY];
+	private int[] nameIds = new int[INITIAL_CAPACITY];
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private int[] types = new int[INITIAL_CAPACITY];
+	private int[] lineNumbers = new int[INITIAL_CAPACITY];
+	private int[] charPositions = new int[INITIAL_CAPACITY];
+	private int[] depths = new int[INITIAL_CAPACITY];
+	private int[] parameterCounts = new int[INITIAL_CAPACITY];
+	private int[] firstDimensions = new int[INITIAL_CAPACITY];
+	private int[] dimensionCounts = new int[INITIAL_CAPACITY];
+	private int size;
+
+	private int[] dimensions = new int[INITIAL_CAPACITY];
+	private int dimensionsSize;
+
+	// the distinct type names by slot, the few there are
+	private int[] typeNameIds = new int[8];
+	private String[] typeNames = new String[8];
+	private int typeCount;
+
+	public int size()
+	{
+		return size;
+	}
+
+	// -1 if the symbol was never declared
+	public int symbolId(Symbol symbol)
+	{
+		int id = symbol.metadataId;
+		return id >= 0 && id < size && symbols[id] == symbol ? id : -1;
+	}
+
+	public Symbol symbol(int id)
+	{
+		return symbols[id];
+	}
+
+	public int nameId(int id)
+	{
+		return nameIds[id];
+	}
+
+	public Kind kind(int id)
+	{
+		return KINDS[kinds[id]];
+	}
+
+	// The declared type, the return type for functions, or -1 if the
+	// declaration broke off before it.
+	public int typeNameId(int id)
+	{
+		return types[id] < 0 ? -1 : typeNameIds[types[id]];
+	}
+
+	public String typeName(int id)
+	{
+		return types[id] < 0 ? null : typeNames[types[id]];
+	}
+
+	public int lineNumber(int id)
+	{
+		return lineNumbers[id];
+	}
+
+	public int charPosition(int id)
+	{
+		return charPositions[id];
+	}
+
+	public int depth(int id)
+	{
+		return depths[id];
+	}
+
+	// The number of parameters the function was written with. The declared
+	// ones are the symbols right after it; one that repeats a name counts
+	// here but has no symbol.
+	public int parameterCount(int id)
+	{
+		return parameterCounts[id];
+	}
+
+	// 0 for anything but arrays
+	public int dimensionCount(int id)
+	{
+		return dimensionCounts[id];
+	}
+
+	// -1 for a size that does not fit an int
+	public int dimension(int id, int index)
+	{
+		if (index < 0 || index >= dimensionCounts[id])
+		{
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return dimensions[firstDimensions[id] + index];
+	}
+
+	public int[] dimensions(int id)
+	{
+		return Arrays.copyOfRange(dimensions, firstDimensions[id], firstDimensions[id] + dimensionCounts[id]);
+	}
+
+	int declare(int nameId, Symbol symbol, Kind kind, int lineNumber, int charPosition, int depth)
+	{
+		if (size == symbols.length)
+		{
+			int capacity = size * 2;
+			symbols = Arrays.copyOf(symbols, capacity);
+			nameIds = Arrays.copyOf(nameIds, capacity);
+			kinds = Arrays.copyOf(kinds, capacity);
+			types = Arrays.copyOf(types, capacity);
+			lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+			charPositions = Arrays.copyOf(charPositions, capacity);
+			depths = Arrays.copyOf(depths, capacity);
+			parameterCounts = Arrays.copyOf(parameterCounts, capacity);
+			firstDimensions = Arrays.copyOf(firstDimensions, capacity);
+			dimensionCounts = Arrays.copyOf(dimensionCounts, capacity);
+		}
+
+		int id = size++;
+		symbol.metadataId = id;
+		symbols[id] = symbol;
+		nameIds[id] = nameId;
+		kinds[id] = (byte) kind.ordinal();
+		types[id] = -1;
+		lineNumbers[id] = lineNumber;
+		charPositions[id] = charPosition;
+		depths[id] = depth;
+		firstDimensions[id] = dimensionsSize;
+		return id;
+	}
+
+	void setType(int id, int nameId, String name)
+	{
+		int slot = 0;
+		while (slot < typeCount && typeNameIds[slot] != nameId)
+		{
+			slot++;
+		}
+		if (slot == typeCount)
+		{
+			if (typeCount == typeNameIds.length)
+			{
+				typeNameIds = Arrays.copyOf(typeNameIds, typeCount * 2);
+				typeNames = Arrays.copyOf(typeNames, typeCount * 2);
+			}
+			typeNameIds[slot] = nameId;
+			typeNames[slot] = name;
+			typeCount++;
+		}
+		types[id] = slot;
+	}
+
+	void setParameterCount(int id, int count)
+	{
+		parameterCounts[id] = count;
+	}
+
+	// Only ever called for the symbol declared last, so its run stays whole.
+	void addDimension(int id, int dimension)
+	{
+		if (dimensionsSize == dimensions.length)
+		{
+			dimensions = Arrays.copyOf(dimensions, dimensionsSize * 2);
+		}
+		dimensions[dimensionsSize++] = dimension;
+		dimensionCounts[id]++;
+	}
+}
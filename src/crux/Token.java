@@ -22,12 +22,17 @@ public class Token {
 		private Kind(String lexeme) {
 			this.lexeme = lexeme;
 		}
+
+		String lexeme() {
+			return lexeme;
+		}
 	}
 
 	protected Kind kind;
 	protected int lineNumber;
 	protected int charPosition;
 	protected String lexeme;
+	protected int nameId = -1;
 
 	private static final String responseNoValue = "%s(lineNum:%d, charPos:%d)";
 	private static final String responseValue = "%s(%s)(lineNum:%d, charPos:%d)";
@@ -45,39 +50,120 @@ public class Token {
 		this(kind, kind.lexeme, lineNumber, charPosition);
 	}
 
-	private static Kind findKind(String lexeme) {
+	// Trie over the fixed token lexemes, built once. Transitions are indexed
+	// by node * 128 + char; a node holds the kind it spells, or null if it is
+	// only a proper prefix of some lexeme. The Scanner steps through it one
+	// character at a time.
+	static final int PREFIX_START = 0;
+	private static final int[] PREFIX_TRANSITIONS;
+	private static final Kind[] PREFIX_KINDS;
+
+	static {
+		int nodes = 1;
 		for (Kind kind : Kind.values()) {
-			if (kind.lexeme.equals(lexeme)) {
-				return kind;
+			nodes += kind.lexeme.length();
+		}
+
+		int[] transitions = new int[nodes * 128];
+		Kind[] kinds = new Kind[nodes];
+		int count = 1;
+		for (Kind kind : Kind.values()) {
+			String text = kind.lexeme;
+			if (text.isEmpty()) {
+				continue;
 			}
+
+			int node = PREFIX_START;
+			for (int i = 0; i < text.length(); i++) {
+				int index = node * 128 + text.charAt(i);
+				if (transitions[index] == 0) {
+					transitions[index] = count++;
+				}
+				node = transitions[index];
+			}
+			kinds[node] = kind;
 		}
 
-		return null;
+		PREFIX_TRANSITIONS = transitions;
+		PREFIX_KINDS = kinds;
 	}
 
-	private static boolean isInteger(String lexeme) {
-		try {
-			return Integer.signum(Integer.parseInt(lexeme)) != -1;
-		} catch (NumberFormatException e) {
-			return false;
+	// The node reached from node over c, or -1 if no fixed lexeme continues
+	// that way.
+	static int prefixStep(int node, int c) {
+		if (c >= 128) {
+			return -1;
 		}
+		int target = PREFIX_TRANSITIONS[node * 128 + c];
+		return target == 0 ? -1 : target;
 	}
 
-	private static boolean isFloat(String lexeme) {
-		// Double.parseDouble and Float.parseFloat does not work for this
+	static Kind prefixKind(int node) {
+		return PREFIX_KINDS[node];
+	}
+
+	private static int prefixNode(String lexeme) {
+		int node = PREFIX_START;
+		for (int i = 0; i < lexeme.length() && node >= 0; i++) {
+			node = prefixStep(node, lexeme.charAt(i));
+		}
+		return node;
+	}
+
+	private static int prefixNode(char[] buffer, int offset, int length) {
+		int node = PREFIX_START;
+		for (int i = offset; i < offset + length && node >= 0; i++) {
+			node = prefixStep(node, buffer[i]);
+		}
+		return node;
+	}
+
+	static Kind findKind(String lexeme) {
+		int node = prefixNode(lexeme);
+		return node < 0 ? null : PREFIX_KINDS[node];
+	}
 
-		char firstChar = lexeme.charAt(0);
-		if (firstChar == '.') {
+	static Kind findKind(char[] buffer, int offset, int length) {
+		int node = prefixNode(buffer, offset, length);
+		return node < 0 ? null : PREFIX_KINDS[node];
+	}
+
+	// Same acceptance as Integer.parseInt followed by a non-negative check.
+	private static boolean isInteger(char[] buffer, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		boolean negative = false;
+		if (length > 0 && (buffer[i] == '-' || buffer[i] == '+')) {
+			negative = buffer[i++] == '-';
+		}
+		if (i == end) {
 			return false;
 		}
 
-		if (!lexeme.contains(".")) {
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = Character.digit(buffer[i], 10);
+			if (digit < 0) {
+				return false;
+			}
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE) {
+				return false;
+			}
+		}
+		return !negative || value == 0;
+	}
+
+	private static boolean isFloat(char[] buffer, int offset, int length) {
+		// Double.parseDouble and Float.parseFloat does not work for this
+
+		if (buffer[offset] == '.') {
 			return false;
 		}
 
 		int count = 0;
-		char[] lexemeArray = lexeme.toCharArray();
-		for (char c : lexemeArray) {
+		for (int i = offset; i < offset + length; i++) {
+			char c = buffer[i];
 			if (c == '.') {
 				if (++count > 1) {
 					return false;
@@ -88,18 +174,18 @@ public class Token {
 				}
 			}
 		}
-		return true;
+		return count == 1;
 	}
 
-	private static boolean isIdentifier(String lexeme) {
-		char firstChar = lexeme.charAt(0);
+	private static boolean isIdentifier(char[] buffer, int offset, int length) {
+		char firstChar = buffer[offset];
 
 		if (!(Character.isLetter(firstChar) || firstChar == '_')) {
 			return false;
 		}
-		
-		char[] lexemeArray = lexeme.toCharArray();
-		for (char c : lexemeArray) {
+
+		for (int i = offset; i < offset + length; i++) {
+			char c = buffer[i];
 			if (!(Character.isDigit(c) || Character.isLetter(c) || c == '_')) {
 				return false;
 			}
@@ -111,6 +197,10 @@ public class Token {
 		return new Token(kind, lineNumber, charPosition);
 	}
 
+	static Token generate(Kind kind, String lexeme, int lineNumber, int charPosition) {
+		return new Token(kind, lexeme, lineNumber, charPosition);
+	}
+
 	public static Token generate(String lexeme, int lineNumber, int charPosition) {
 		Kind kind = findKind(lexeme);
 
@@ -118,18 +208,34 @@ public class Token {
 			return new Token(kind, lineNumber, charPosition);
 		}
 
-		if (isInteger(lexeme)) {
-			return new Token(Kind.INTEGER, lexeme, lineNumber, charPosition);
+		char[] buffer = lexeme.toCharArray();
+		return new Token(classify(buffer, 0, buffer.length), lexeme, lineNumber, charPosition);
+	}
+
+	public static Token generate(char[] buffer, int offset, int length, int lineNumber, int charPosition) {
+		Kind kind = findKind(buffer, offset, length);
+
+		if (kind != null) {
+			return new Token(kind, lineNumber, charPosition);
+		}
+
+		kind = classify(buffer, offset, length);
+		return new Token(kind, new String(buffer, offset, length), lineNumber, charPosition);
+	}
+
+	private static Kind classify(char[] buffer, int offset, int length) {
+		if (isInteger(buffer, offset, length)) {
+			return Kind.INTEGER;
 		}
 
-		if (isFloat(lexeme)) {
-			return new Token(Kind.FLOAT, lexeme, lineNumber, charPosition);
+		if (isFloat(buffer, offset, length)) {
+			return Kind.FLOAT;
 		}
 
-		if (isIdentifier(lexeme)) {
-			return new Token(Kind.IDENTIFIER, lexeme, lineNumber, charPosition);
+		if (isIdentifier(buffer, offset, length)) {
+			return Kind.IDENTIFIER;
 		}
-		return new Token(Kind.ERROR, lexeme, lineNumber, charPosition);
+		return Kind.ERROR;
 	}
 
 	public String toString() {
@@ -151,24 +257,19 @@ public class Token {
 	}
 	
 	public static boolean isToken(String lexeme) {
-		for (Kind kind : Kind.values()) {
-			if (kind.lexeme.startsWith(lexeme)) {
-				return true;
-			}
-		}
-
-		if (isInteger(lexeme)) {
+		if (prefixNode(lexeme) >= 0) {
 			return true;
 		}
 
-		if (isFloat(lexeme)) {
-			return true;
-		}
+		char[] buffer = lexeme.toCharArray();
+		return classify(buffer, 0, buffer.length) != Kind.ERROR;
+	}
 
-		if (isIdentifier(lexeme)) {
+	public static boolean isToken(char[] buffer, int offset, int length) {
+		if (prefixNode(buffer, offset, length) >= 0) {
 			return true;
 		}
 
-		return false;
+		return classify(buffer, offset, length) != Kind.ERROR;
 	}
 }
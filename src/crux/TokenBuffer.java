@@ -0,0 +1,277 @@
+package crux;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+
+// A pre-lexed token stream stored as parallel arrays. Lexemes are not kept
+// as strings but as offsets and lengths into the retained source text.
+public class TokenBuffer implements TokenStream
+{
+	private static final Token.Kind[] KINDS = Token.Kind.values();
+	private static final int INITIAL_CAPACITY = 256;
+
+	private char[] source;
+	private NameTable names;
+
+	private byte[] kinds;
+	private int[] lineNumbers;
+	private int[] charPositions;
+	private int[] offsets;
+	private int[] lengths;
+	private int[] nameIds;
+	private int size;
+
+	private int cursor;
+
+	// kept for reset
+	private Scanner scanner;
+	// whether source and names belong to the caller of lex, and so may not be
+	// overwritten by a reset
+	private boolean borrowed;
+
+	private TokenBuffer(char[] source, NameTable names)
+	{
+		this.source = source;
+		this.names = names;
+		this.kinds = new byte[INITIAL_CAPACITY];
+		this.lineNumbers = new int[INITIAL_CAPACITY];
+		this.charPositions = new int[INITIAL_CAPACITY];
+		this.offsets = new int[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+		this.nameIds = new int[INITIAL_CAPACITY];
+		this.size = 0;
+		this.cursor = -1;
+	}
+
+	public static TokenBuffer lex(Path path) throws IOException
+	{
+		TokenBuffer tokens = new TokenBuffer(new char[8192], BuiltIns.standard().newNameTable());
+		try (Reader reader = new MappedSourceReader(path))
+		{
+			tokens.reset(reader);
+		}
+		return tokens;
+	}
+
+	// Reads and lexes another source in place of this one, reusing the
+	// arrays. The name table is cleared back to the standard built-ins.
+	public void reset(Reader reader) throws IOException
+	{
+		if (borrowed)
+		{
+			source = new char[Math.max(source.length, 8192)];
+			names = BuiltIns.standard().newNameTable();
+			borrowed = false;
+		}
+
+		int length = 0;
+		int count;
+		while ((count = reader.read(source, length, source.length - length)) >= 0)
+		{
+			length += count;
+			if (length == source.length)
+			{
+				char[] grown = new char[source.length * 2];
+				System.arraycopy(source, 0, grown, 0, length);
+				source = grown;
+			}
+		}
+
+		size = 0;
+		cursor = -1;
+		Reader chars = new CharArrayReader(source, 0, length);
+		if (scanner == null)
+		{
+			names.reset(BuiltIns.standard().names());
+			scanner = new Scanner(chars, names, 1, 0, 0);
+		}
+		else
+		{
+			scanner.reset(chars);
+		}
+		scan(scanner);
+	}
+
+	public static TokenBuffer lex(char[] source, int length) throws IOException
+	{
+		return lex(source, 0, length, BuiltIns.standard().newNameTable(), 1, 0);
+	}
+
+	// Lexes source[offset, offset + length) as a scanner resumed at the given
+	// position would, keeping offsets relative to the whole source.
+	static TokenBuffer lex(char[] source, int offset, int length, NameTable names, int lineNumber,
+			int charPosition) throws IOException
+	{
+		Scanner scanner = new Scanner(new CharArrayReader(source, offset, length), names, lineNumber, charPosition,
+				offset);
+		TokenBuffer tokens = new TokenBuffer(source, names);
+		tokens.borrowed = true;
+		tokens.scan(scanner);
+		return tokens;
+	}
+
+	// The scanner records the lex in Metrics when it reaches EOF.
+	private void scan(Scanner scanner) throws IOException
+	{
+		Token.Kind kind;
+		do
+		{
+			kind = scanner.advance();
+			add(kind, scanner.tokenLineNumber(), scanner.tokenCharPosition(), scanner.tokenOffset(),
+					scanner.tokenLength(), scanner.tokenNameId());
+		} while (kind != Token.Kind.EOF);
+	}
+
+	private void add(Token.Kind kind, int lineNumber, int charPosition, int offset, int length, int nameId)
+	{
+		if (size == kinds.length)
+		{
+			grow();
+		}
+		kinds[size] = (byte) kind.ordinal();
+		lineNumbers[size] = lineNumber;
+		charPositions[size] = charPosition;
+		offsets[size] = offset;
+		lengths[size] = length;
+		nameIds[size] = nameId;
+		size++;
+	}
+
+	private void grow()
+	{
+		int capacity = kinds.length * 2;
+		byte[] newKinds = new byte[capacity];
+		int[] newLineNumbers = new int[capacity];
+		int[] newCharPositions = new int[capacity];
+		int[] newOffsets = new int[capacity];
+		int[] newLengths = new int[capacity];
+		int[] newNameIds = new int[capacity];
+		System.arraycopy(kinds, 0, newKinds, 0, size);
+		System.arraycopy(lineNumbers, 0, newLineNumbers, 0, size);
+		System.arraycopy(charPositions, 0, newCharPositions, 0, size);
+		System.arraycopy(offsets, 0, newOffsets, 0, size);
+		System.arraycopy(lengths, 0, newLengths, 0, size);
+		System.arraycopy(nameIds, 0, newNameIds, 0, size);
+		kinds = newKinds;
+		lineNumbers = newLineNumbers;
+		charPositions = newCharPositions;
+		offsets = newOffsets;
+		lengths = newLengths;
+		nameIds = newNameIds;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public Token.Kind kind(int index)
+	{
+		return KINDS[kinds[index]];
+	}
+
+	public int lineNumber(int index)
+	{
+		return lineNumbers[index];
+	}
+
+	public int charPosition(int index)
+	{
+		return charPositions[index];
+	}
+
+	public int nameId(int index)
+	{
+		return nameIds[index];
+	}
+
+	int offset(int index)
+	{
+		return offsets[index];
+	}
+
+	int length(int index)
+	{
+		return lengths[index];
+	}
+
+	// index of the current token, -1 before the first advance()
+	int position()
+	{
+		return cursor;
+	}
+
+	public String lexeme(int index)
+	{
+		Token.Kind kind = kind(index);
+		if (kind == Token.Kind.IDENTIFIER)
+		{
+			return names.name(nameIds[index]);
+		}
+		if (kind.lexeme().isEmpty())
+		{
+			return new String(source, offsets[index], lengths[index]);
+		}
+		return kind.lexeme();
+	}
+
+	public Token token(int index)
+	{
+		Token.Kind kind = kind(index);
+		Token token = Token.generate(kind, lexeme(index), lineNumbers[index], charPositions[index]);
+		token.nameId = nameIds[index];
+		return token;
+	}
+
+	public void rewind()
+	{
+		cursor = -1;
+	}
+
+	public NameTable names()
+	{
+		return names;
+	}
+
+	// Past the end the stream keeps returning the final EOF token.
+	public Token.Kind advance()
+	{
+		if (cursor < size - 1)
+		{
+			cursor++;
+		}
+		return kind(cursor);
+	}
+
+	public Token.Kind tokenKind()
+	{
+		return kind(cursor);
+	}
+
+	public int tokenLineNumber()
+	{
+		return lineNumbers[cursor];
+	}
+
+	public int tokenCharPosition()
+	{
+		return charPositions[cursor];
+	}
+
+	public int tokenNameId()
+	{
+		return nameIds[cursor];
+	}
+
+	public String tokenLexeme()
+	{
+		return lexeme(cursor);
+	}
+
+	// the whole source was recorded when it was lexed
+	public void flushMetrics()
+	{
+	}
+}
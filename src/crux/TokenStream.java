@@ -0,0 +1,25 @@
+package crux;
+
+import java.io.IOException;
+
+public interface TokenStream
+{
+	public NameTable names();
+
+	// Moves to the next token and returns its kind.
+	public Token.Kind advance() throws IOException;
+
+	public Token.Kind tokenKind();
+
+	public int tokenLineNumber();
+
+	public int tokenCharPosition();
+
+	// Name id of an IDENTIFIER token, -1 for any other kind.
+	public int tokenNameId();
+
+	public String tokenLexeme();
+
+	// Adds what has not reached Metrics yet, once the parser stops reading.
+	public void flushMetrics();
+}